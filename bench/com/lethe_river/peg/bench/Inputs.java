@@ -0,0 +1,135 @@
+package com.lethe_river.peg.bench;
+
+import java.util.Random;
+
+/**
+ * ベンチマークの入力を生成する.
+ *
+ * 入力は文法ごとに決まった種から生成し，指定した長さ以上で文法に受理される最短の文字列とする．
+ * type1とtype2のベンチマークは同じ入力を利用する．
+ *
+ * @author YuyaAizawa
+ */
+public final class Inputs {
+	/**
+	 * 算術式の括弧の深さ．メモを利用しない場合はこの深さに対して指数的に後戻りする
+	 */
+	public static final int ARITHMETIC_DEPTH = 6;
+
+	private static final long SEED = 20240601L;
+
+	private Inputs() {}
+
+	/**
+	 * 文法の名前に対応する入力を生成する
+	 * @param grammar 文法の名前
+	 * @param size 入力の長さの下限
+	 * @return 入力
+	 * @throws IllegalArgumentException 未知の文法の場合
+	 */
+	public static String generate(String grammar, int size) {
+		switch(grammar) {
+		case "lambda":
+			return lambda(size);
+		case "intList":
+			return intList(size);
+		case "json":
+			return json(size);
+		case "csv":
+			return csv(size);
+		case "arithmetic":
+			return arithmetic(size);
+		default:
+			throw new IllegalArgumentException("unknown grammar: " + grammar);
+		}
+	}
+
+	/**
+	 * 2つ以上の項の適用: "(λx.x)(λxyz.xy(yz))z..."
+	 */
+	public static String lambda(int size) {
+		String[] terms = {"x", "(λx.x)", "(λxyz.xy(yz))", "(λf.ff)", "(λx.(λy.(λz.((x)(y))((y)(z)))))"};
+		Random random = new Random(SEED);
+		StringBuilder sb = new StringBuilder(size + 64);
+		sb.append(terms[1]);
+		do {
+			sb.append(terms[random.nextInt(terms.length)]);
+		} while(sb.length() < size);
+		return sb.toString();
+	}
+
+	/**
+	 * {@link java.util.List#toString()}の形式の整数のリスト: "[1, 22, 333]"
+	 */
+	public static String intList(int size) {
+		Random random = new Random(SEED);
+		StringBuilder sb = new StringBuilder(size + 16);
+		sb.append('[').append(random.nextInt(1000));
+		while(sb.length() + 1 < size) {
+			sb.append(", ").append(random.nextInt(1000000));
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * オブジェクトの配列
+	 */
+	public static String json(int size) {
+		Random random = new Random(SEED);
+		StringBuilder sb = new StringBuilder(size + 256);
+		sb.append('[');
+		do {
+			if(sb.length() > 1) {
+				sb.append(',');
+			}
+			sb.append("{\"id\": ").append(random.nextInt(100000))
+			.append(", \"name\": \"item\\u0041").append(random.nextInt(100)).append("\\n\"")
+			.append(", \"score\": -").append(random.nextInt(100)).append('.').append(random.nextInt(100)).append("e3")
+			.append(", \"tags\": [\"a\", \"b\", ").append(random.nextBoolean()).append(", null]")
+			.append(", \"nested\": {\"empty\": {}, \"list\": []}}");
+		} while(sb.length() + 1 < size);
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * 引用符で囲んだフィールドを含む行の並び
+	 */
+	public static String csv(int size) {
+		Random random = new Random(SEED);
+		StringBuilder sb = new StringBuilder(size + 64);
+		do {
+			sb.append(random.nextInt(100000))
+			.append(",plain text ").append(random.nextInt(100))
+			.append(",\"quoted, with \"\"escape\"\"\"")
+			.append(',')
+			.append(",-").append(random.nextInt(1000))
+			.append("\r\n");
+		} while(sb.length() < size);
+		return sb.toString();
+	}
+
+	/**
+	 * 括弧の深さが{@link #ARITHMETIC_DEPTH}の項の和: "((1*2+3)*4+5)+..."
+	 */
+	public static String arithmetic(int size) {
+		Random random = new Random(SEED);
+		StringBuilder sb = new StringBuilder(size + 64);
+		do {
+			if(sb.length() > 0) {
+				sb.append(random.nextBoolean() ? '+' : '-');
+			}
+			nest(sb, random, ARITHMETIC_DEPTH);
+		} while(sb.length() < size);
+		return sb.toString();
+	}
+
+	private static void nest(StringBuilder sb, Random random, int depth) {
+		if(depth == 0) {
+			sb.append(random.nextInt(1000));
+			return;
+		}
+		sb.append('(');
+		nest(sb, random, depth - 1);
+		sb.append('*').append(random.nextInt(100)).append('+').append(random.nextInt(100)).append(')');
+	}
+}
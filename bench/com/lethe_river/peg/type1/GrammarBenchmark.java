@@ -0,0 +1,104 @@
+package com.lethe_river.peg.type1;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lethe_river.peg.bench.Inputs;
+
+/**
+ * type1の規則による受理判定のベンチマーク.
+ * type2の同名のベンチマークと同じ文法と入力で比べる．
+ *
+ * @author YuyaAizawa
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g", "-Xss16m"})
+public class GrammarBenchmark {
+
+	@Param({"lambda", "intList", "arithmetic"})
+	public String grammar;
+
+	@Param({"100", "10000", "1000000", "100000000"})
+	public int size;
+
+	@Param({"none", "full"})
+	public String memo;
+
+	private Rule rule;
+	private String input;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		rule = rule(grammar);
+		input = Inputs.generate(grammar, size);
+		if(!recognize()) {
+			throw new IllegalStateException("input rejected: " + grammar);
+		}
+	}
+
+	private static Rule rule(String grammar) {
+		switch(grammar) {
+		case "lambda":
+			return new LambdaExpressionRule().exp;
+		case "intList": {
+			Rule integer = new Rule.Plus(new Rule.PredicatedChar(c -> '0' <= c && c <= '9', "[0-9]"));
+			return new Rule.Sequence(
+					new Rule.FullMatch("["),
+					integer,
+					new Rule.Star(new Rule.Sequence(new Rule.FullMatch(", "), integer)),
+					new Rule.FullMatch("]"));
+		}
+		case "arithmetic":
+			return new ArithmeticRule().sum;
+		default:
+			throw new IllegalArgumentException("unknown grammar: " + grammar);
+		}
+	}
+
+	/**
+	 * type2のベンチマークと同じ算術式
+	 */
+	static final class ArithmeticRule {
+		final Rule number = new Rule.Plus(new Rule.PredicatedChar(c -> '0' <= c && c <= '9', "[0-9]"));
+		final Rule nested = new Rule.Choice(() -> this.sum);
+
+		final Rule factor = new Rule.Choice(
+				() -> new Rule.Sequence(new Rule.FullMatch("("), nested, new Rule.FullMatch(")"), new Rule.FullMatch("!")),
+				() -> new Rule.Sequence(new Rule.FullMatch("("), nested, new Rule.FullMatch(")")),
+				() -> number);
+
+		final Rule product = new Rule.Sequence(
+				factor,
+				new Rule.Star(new Rule.Sequence(new Rule.FullMatch("*"), factor)));
+
+		final Rule sum = new Rule.Sequence(
+				product,
+				new Rule.Star(new Rule.Sequence(new Rule.PredicatedChar(c -> c == '+' || c == '-', "[+\\-]"), product)));
+	}
+
+	private Memo newMemo() {
+		return memo.equals("none") ? Memo.noMemo() : Memo.fullMemo();
+	}
+
+	@Benchmark
+	public boolean recognize() {
+		Source src = Source.from(input);
+		return rule.parse(src, newMemo()) && src.index() == input.length();
+	}
+}
@@ -0,0 +1,152 @@
+package com.lethe_river.peg.type2;
+
+/**
+ * ベンチマークで読み取る文法.
+ * 入力は{@link com.lethe_river.peg.bench.Inputs}が生成する．
+ *
+ * @author YuyaAizawa
+ */
+final class BenchmarkGrammars {
+	private BenchmarkGrammars() {}
+
+	/**
+	 * 名前に対応する文法の開始規則を新しく生成する
+	 * @param grammar 文法の名前
+	 * @return 開始規則
+	 * @throws IllegalArgumentException 未知の文法の場合
+	 */
+	static Rule rule(String grammar) {
+		switch(grammar) {
+		case "lambda":
+			return new LambdaExpressionRule().exp;
+		case "intList":
+			return new IntListRule().intList;
+		case "json":
+			return new JsonRule().json;
+		case "csv":
+			return new CsvRule().csv;
+		case "arithmetic":
+			return new ArithmeticRule().sum;
+		default:
+			throw new IllegalArgumentException("unknown grammar: " + grammar);
+		}
+	}
+
+	/**
+	 * {@link java.util.List#toString()}の形式の整数のリスト
+	 */
+	static final class IntListRule {
+		final Rule integer = new Rule.Plus(Rule.CharClass.of("[0-9]"));
+
+		final Rule intList = new Rule.Sequence(
+				new Rule.FullMatch("["),
+				integer,
+				new Rule.Star(new Rule.Sequence(new Rule.FullMatch(", "), integer)),
+				new Rule.FullMatch("]"));
+	}
+
+	static final class JsonRule {
+		final Rule ws = new Rule.Star(Rule.CharClass.of("[ \\t\\r\\n]"));
+		final Rule comma = new Rule.Sequence(new Rule.FullMatch(","), ws);
+
+		final Rule value = new Rule.Choice(
+				() -> this.object,
+				() -> this.array,
+				() -> this.string,
+				() -> this.number,
+				() -> this.literal);
+
+		final Rule hex = Rule.CharClass.of("[0-9a-fA-F]");
+		final Rule escape = new Rule.Sequence(
+				new Rule.FullMatch("\\"),
+				new Rule.Choice(
+						() -> Rule.CharClass.of("[\"\\\\/bfnrt]"),
+						() -> new Rule.Sequence(new Rule.FullMatch("u"), hex, hex, hex, hex)));
+		final Rule string = new Rule.Sequence(
+				new Rule.FullMatch("\""),
+				new Rule.Star(new Rule.Choice(
+						() -> Rule.CharClass.of("[^\"\\\\\\u0000-\\u001f]"),
+						() -> escape)),
+				new Rule.FullMatch("\""),
+				ws);
+
+		final Rule digits = new Rule.Plus(Rule.CharClass.of("[0-9]"));
+		final Rule number = new Rule.Sequence(
+				new Rule.Option(new Rule.FullMatch("-")),
+				new Rule.Choice(
+						() -> new Rule.FullMatch("0"),
+						() -> new Rule.Sequence(Rule.CharClass.of("[1-9]"), new Rule.Star(Rule.CharClass.of("[0-9]")))),
+				new Rule.Option(new Rule.Sequence(new Rule.FullMatch("."), digits)),
+				new Rule.Option(new Rule.Sequence(Rule.CharClass.of("[eE]"), new Rule.Option(Rule.CharClass.of("[+\\-]")), digits)),
+				ws);
+
+		final Rule literal = new Rule.Sequence(
+				new Rule.Choice(
+						() -> new Rule.FullMatch("true"),
+						() -> new Rule.FullMatch("false"),
+						() -> new Rule.FullMatch("null")),
+				ws);
+
+		final Rule member = new Rule.Sequence(string, new Rule.FullMatch(":"), ws, value);
+		final Rule object = new Rule.Sequence(
+				new Rule.FullMatch("{"),
+				ws,
+				new Rule.Option(new Rule.Sequence(member, new Rule.Star(new Rule.Sequence(comma, member)))),
+				new Rule.FullMatch("}"),
+				ws);
+
+		final Rule array = new Rule.Sequence(
+				new Rule.FullMatch("["),
+				ws,
+				new Rule.Option(new Rule.Sequence(value, new Rule.Star(new Rule.Sequence(comma, value)))),
+				new Rule.FullMatch("]"),
+				ws);
+
+		final Rule json = new Rule.Sequence(ws, value);
+	}
+
+	/**
+	 * RFC 4180の形式の行の並び
+	 */
+	static final class CsvRule {
+		final Rule quoted = new Rule.Sequence(
+				new Rule.FullMatch("\""),
+				new Rule.Star(new Rule.Choice(
+						() -> Rule.CharClass.of("[^\"]"),
+						() -> new Rule.FullMatch("\"\""))),
+				new Rule.FullMatch("\""));
+		final Rule plain = new Rule.Star(Rule.CharClass.of("[^,\"\\r\\n]"));
+		final Rule field = new Rule.Choice(() -> quoted, () -> plain);
+
+		final Rule record = new Rule.Sequence(
+				field,
+				new Rule.Star(new Rule.Sequence(new Rule.FullMatch(","), field)),
+				new Rule.Choice(
+						() -> new Rule.FullMatch("\r\n"),
+						() -> new Rule.FullMatch("\n")));
+
+		final Rule csv = new Rule.Star(record);
+	}
+
+	/**
+	 * 括弧の後に"!"を試してから括弧のみを試す算術式．
+	 * メモを利用しない場合は括弧の深さに対して指数的に後戻りする
+	 */
+	static final class ArithmeticRule {
+		final Rule number = new Rule.Plus(Rule.CharClass.of("[0-9]"));
+		final Rule nested = new Rule.Choice(() -> this.sum);
+
+		final Rule factor = new Rule.Choice(
+				() -> new Rule.Sequence(new Rule.FullMatch("("), nested, new Rule.FullMatch(")"), new Rule.FullMatch("!")),
+				() -> new Rule.Sequence(new Rule.FullMatch("("), nested, new Rule.FullMatch(")")),
+				() -> number);
+
+		final Rule product = new Rule.Sequence(
+				factor,
+				new Rule.Star(new Rule.Sequence(new Rule.FullMatch("*"), factor)));
+
+		final Rule sum = new Rule.Sequence(
+				product,
+				new Rule.Star(new Rule.Sequence(Rule.CharClass.of("[+\\-]"), product)));
+	}
+}
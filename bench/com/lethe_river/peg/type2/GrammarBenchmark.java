@@ -0,0 +1,78 @@
+package com.lethe_river.peg.type2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lethe_river.peg.bench.Inputs;
+
+/**
+ * type2の規則による受理判定のベンチマーク.
+ *
+ * 文法，入力の長さ，メモの組合せごとに，入力全体の受理判定の処理量と所要時間の分布を測る．
+ * メモは呼出しごとに生成するため，メモの確保も測定に含む．
+ * 規則は{@link Grammar#of(Rule)}で検証と選択の表の設定を済ませてから利用する．
+ *
+ * @author YuyaAizawa
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g", "-Xss16m"})
+public class GrammarBenchmark {
+
+	@Param({"lambda", "intList", "json", "csv", "arithmetic"})
+	public String grammar;
+
+	@Param({"100", "10000", "1000000", "100000000"})
+	public int size;
+
+	@Param({"none", "full", "dense"})
+	public String memo;
+
+	private Rule rule;
+	private Grammar frozen;
+	private String input;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		rule = BenchmarkGrammars.rule(grammar);
+		frozen = Grammar.of(rule);
+		input = Inputs.generate(grammar, size);
+		if(!recognize()) {
+			throw new IllegalStateException("input rejected: " + grammar);
+		}
+	}
+
+	private Memo newMemo() {
+		switch(memo) {
+		case "none":
+			return Memo.noMemo(frozen);
+		case "full":
+			return Memo.fullMemo(frozen);
+		case "dense":
+			return Memo.denseMemo(frozen);
+		default:
+			throw new IllegalArgumentException("unknown memo: " + memo);
+		}
+	}
+
+	@Benchmark
+	public boolean recognize() {
+		Source src = Source.from(input);
+		return rule.parse(src, newMemo()) && src.index() == input.length();
+	}
+}
@@ -0,0 +1,74 @@
+package com.lethe_river.peg.type2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lethe_river.peg.bench.Inputs;
+
+/**
+ * 整数のリストを結果オブジェクトまで読み取るベンチマーク.
+ * 受理判定の後に結果を生成する読み取り，1回の走査で行う読み取り，不変なパーサによる読み取りを比べる．
+ *
+ * @author YuyaAizawa
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g", "-Xss16m"})
+public class ParserBenchmark {
+
+	@Param({"100", "10000", "1000000", "100000000"})
+	public int size;
+
+	private Parser<List<Integer>> intListParser;
+	private Parser<List<Integer>> frozen;
+	private String input;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		// Sampleと同じ文法
+		Parser<Integer> intParser = Parser.characters(c -> '0' <= c && c <= '9', "[0-9]")
+				.map(str -> Integer.parseInt(str));
+		Parser<Integer> commaSpaceIntParser = Parser.of(", ").then(intParser, (v, i) -> i);
+		Parser<List<Integer>> intSeqParser = intParser.then(commaSpaceIntParser.star(),
+				(first, rest) -> {
+					List<Integer> l = new ArrayList<>(rest.size() + 1);
+					l.add(first);
+					l.addAll(rest);
+					return l;});
+		intListParser = Parser.of("[").then(intSeqParser).then("]");
+		frozen = intListParser.freeze();
+		input = Inputs.intList(size);
+	}
+
+	@Benchmark
+	public List<Integer> parse() {
+		return intListParser.parse(input);
+	}
+
+	@Benchmark
+	public List<Integer> parseFused() {
+		return intListParser.parseFused(input);
+	}
+
+	@Benchmark
+	public List<Integer> parseFrozen() {
+		return frozen.parse(input);
+	}
+}
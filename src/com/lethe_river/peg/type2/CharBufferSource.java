@@ -0,0 +1,120 @@
+package com.lethe_river.peg.type2;
+
+import java.nio.CharBuffer;
+import java.util.NoSuchElementException;
+
+import com.lethe_river.util.primitive.function.CharPredicate;
+
+/**
+ * 配列を持たないCharBufferを複製せずに読み取るソース.
+ * 位置はバッファの現在位置からの相対位置で表す．
+ *
+ * @author YuyaAizawa
+ */
+final class CharBufferSource implements Source {
+	private final CharBuffer buffer;
+	private final LineIndex lines;
+	private int pos = 0;
+
+	CharBufferSource(CharBuffer buffer) {
+		this(buffer.slice(), null);
+	}
+
+	private CharBufferSource(CharBuffer buffer, LineIndex lines) {
+		this.buffer = buffer;
+		this.lines = lines != null ? lines : new LineIndex(buffer);
+	}
+
+	@Override
+	public int length() {
+		return buffer.limit();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return pos < buffer.limit();
+	}
+
+	@Override
+	public char next() {
+		if(pos >= buffer.limit()) {
+			throw new NoSuchElementException();
+		}
+		return buffer.get(pos++);
+	}
+
+	@Override
+	public int peek() {
+		return pos < buffer.limit() ? buffer.get(pos) : END;
+	}
+
+	@Override
+	public boolean regionMatches(String str) {
+		int n = str.length();
+		if(buffer.limit() - pos < n) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			if(buffer.get(pos + i) != str.charAt(i)) {
+				return false;
+			}
+		}
+		pos += n;
+		return true;
+	}
+
+	@Override
+	public int scanWhile(CharPredicate predicate) {
+		int start = pos;
+		int limit = buffer.limit();
+		while(pos < limit && predicate.test(buffer.get(pos))) {
+			pos++;
+		}
+		return pos - start;
+	}
+
+	@Override
+	public int indexOf(char c) {
+		for (int i = pos; i < buffer.limit(); i++) {
+			if(buffer.get(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int index() {
+		return pos;
+	}
+
+	@Override
+	public int lineNum() {
+		return lines.lineNum(pos);
+	}
+
+	@Override
+	public int columnNum() {
+		return lines.columnNum(pos);
+	}
+
+	@Override
+	public void jump(int index) {
+		if(index < 0 || buffer.limit() < index) {
+			throw new IndexOutOfBoundsException("index: "+index+", length: "+buffer.limit());
+		}
+		pos = index;
+	}
+
+	@Override
+	public String makeString(int from, int to) {
+		return buffer.subSequence(from, to).toString();
+	}
+
+	@Override
+	public Source duplicate() {
+		CharBufferSource duplicate = new CharBufferSource(buffer, lines);
+		duplicate.pos = pos;
+		return duplicate;
+	}
+}
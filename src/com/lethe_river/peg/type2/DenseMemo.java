@@ -0,0 +1,235 @@
+package com.lethe_river.peg.type2;
+
+import java.util.Arrays;
+
+/**
+ * 文法内の規則番号と位置で直接索引付けたメモ．
+ * 方針で記録しないとした規則は何も記録しない．
+ *
+ * 規則ごとに位置を{@value #CHUNK_SIZE}文字ずつの塊に分け，
+ * 塊は初めて記録するときに確保する．
+ * 切断位置より前の塊は捨てるため，切断を含む文法では大きさが入力の長さに依存しない．
+ * 記録値は結果に2を足した値で，未記録(0)がそのままNULLになる．
+ * 結果オブジェクトは同じ形の別の表に，生成したパーサと交互に並べて記録する．
+ *
+ * @author YuyaAizawa
+ */
+final class DenseMemo implements Memo {
+	private static final int CHUNK_BITS = 8;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int[][] NO_CHUNKS = new int[0][];
+	private static final Object[][] NO_VALUE_CHUNKS = new Object[0][];
+
+	private final Grammar grammar;
+	private final MemoPolicy policy;
+
+	/**
+	 * 規則番号，塊番号，塊内の位置で索引付けた記録値．
+	 * 記録しない規則の塊の配列はnull
+	 */
+	private final int[][][] table;
+
+	/**
+	 * 規則番号，塊番号で索引付けた，塊内の位置の2倍の位置に生成したパーサ，その次に結果オブジェクトを並べた記録．
+	 * 記録しない規則の塊の配列はnull
+	 */
+	private final Object[][][] values;
+
+	/**
+	 * 塊の配列の先頭要素の塊番号
+	 */
+	private int firstChunk = 0;
+
+	/**
+	 * 確保した塊の要素数の合計
+	 */
+	private int allocated = 0;
+
+	private int cutPosition = 0;
+	private final Failures failures = new Failures();
+
+	DenseMemo(MemoPolicy policy) {
+		this.grammar = policy.grammar();
+		this.policy = policy;
+		this.table = new int[grammar.size()][][];
+		this.values = new Object[grammar.size()][][];
+		for (int i = 0; i < table.length; i++) {
+			boolean memoized = policy.isMemoized(grammar.rule(i));
+			table[i] = memoized ? NO_CHUNKS : null;
+			values[i] = memoized ? NO_VALUE_CHUNKS : null;
+		}
+	}
+
+	@Override
+	public void putEnd(Rule rule, int start, int end) {
+		put(rule, start, end);
+	}
+
+	@Override
+	public void putError(Rule rule, int start) {
+		put(rule, start, ERROR);
+	}
+
+	@Override
+	public int getEnd(Rule rule, int start) {
+		int index = grammar.indexOf(rule);
+		if(index < 0) {
+			return NULL;
+		}
+		int[][] chunks = table[index];
+		int c = (start >>> CHUNK_BITS) - firstChunk;
+		if(chunks == null || c < 0 || c >= chunks.length) {
+			return NULL;
+		}
+		int[] chunk = chunks[c];
+		if(chunk == null) {
+			return NULL;
+		}
+		return chunk[start & CHUNK_MASK] + NULL;
+	}
+
+	private void put(Rule rule, int start, int value) {
+		int index = grammar.indexOf(rule);
+		if(index < 0) {
+			return;
+		}
+		int[][] chunks = table[index];
+		if(chunks == null) {
+			return;
+		}
+		int c = (start >>> CHUNK_BITS) - firstChunk;
+		if(c < 0) {
+			return;
+		}
+		if(c >= chunks.length) {
+			chunks = Arrays.copyOf(chunks, Math.max(c + 1, chunks.length * 2));
+			table[index] = chunks;
+		}
+		int[] chunk = chunks[c];
+		if(chunk == null) {
+			chunk = new int[CHUNK_SIZE];
+			chunks[c] = chunk;
+			allocated += CHUNK_SIZE;
+		}
+		chunk[start & CHUNK_MASK] = value - NULL;
+	}
+
+	@Override
+	public void putValue(Rule rule, int start, Parser<?> parser, Object value) {
+		int index = grammar.indexOf(rule);
+		if(index < 0) {
+			return;
+		}
+		Object[][] chunks = values[index];
+		if(chunks == null) {
+			return;
+		}
+		int c = (start >>> CHUNK_BITS) - firstChunk;
+		if(c < 0) {
+			return;
+		}
+		if(c >= chunks.length) {
+			chunks = Arrays.copyOf(chunks, Math.max(c + 1, chunks.length * 2));
+			values[index] = chunks;
+		}
+		Object[] chunk = chunks[c];
+		if(chunk == null) {
+			chunk = new Object[CHUNK_SIZE * 2];
+			chunks[c] = chunk;
+			allocated += CHUNK_SIZE * 2;
+		}
+		int i = (start & CHUNK_MASK) * 2;
+		chunk[i] = parser;
+		chunk[i + 1] = value;
+	}
+
+	@Override
+	public Object getValue(Rule rule, int start, Parser<?> parser) {
+		int index = grammar.indexOf(rule);
+		if(index < 0) {
+			return NO_VALUE;
+		}
+		Object[][] chunks = values[index];
+		int c = (start >>> CHUNK_BITS) - firstChunk;
+		if(chunks == null || c < 0 || c >= chunks.length) {
+			return NO_VALUE;
+		}
+		Object[] chunk = chunks[c];
+		int i = (start & CHUNK_MASK) * 2;
+		if(chunk == null || chunk[i] != parser) {
+			return NO_VALUE;
+		}
+		return chunk[i + 1];
+	}
+
+	@Override
+	public boolean isMemoized(Rule rule) {
+		return policy.isMemoized(rule);
+	}
+
+	@Override
+	public void cut(int pos) {
+		if(pos <= cutPosition) {
+			return;
+		}
+		cutPosition = pos;
+
+		int drop = (pos >>> CHUNK_BITS) - firstChunk;
+		if(drop <= 0) {
+			return;
+		}
+		for (int i = 0; i < table.length; i++) {
+			int[][] chunks = table[i];
+			if(chunks == null || chunks.length == 0) {
+				continue;
+			}
+			for (int j = 0; j < Math.min(drop, chunks.length); j++) {
+				if(chunks[j] != null) {
+					allocated -= CHUNK_SIZE;
+				}
+			}
+			table[i] = drop < chunks.length
+					? Arrays.copyOfRange(chunks, drop, chunks.length)
+					: NO_CHUNKS;
+		}
+		for (int i = 0; i < values.length; i++) {
+			Object[][] chunks = values[i];
+			if(chunks == null || chunks.length == 0) {
+				continue;
+			}
+			for (int j = 0; j < Math.min(drop, chunks.length); j++) {
+				if(chunks[j] != null) {
+					allocated -= CHUNK_SIZE * 2;
+				}
+			}
+			values[i] = drop < chunks.length
+					? Arrays.copyOfRange(chunks, drop, chunks.length)
+					: NO_VALUE_CHUNKS;
+		}
+		firstChunk += drop;
+	}
+
+	@Override
+	public int cutPosition() {
+		return cutPosition;
+	}
+
+	@Override
+	public Failures failures() {
+		return failures;
+	}
+
+	/**
+	 * 確保した塊の要素数の合計を返す
+	 */
+	@Override
+	public int size() {
+		return allocated;
+	}
+
+	@Override
+	public Grammar grammar() {
+		return grammar;
+	}
+}
@@ -0,0 +1,171 @@
+package com.lethe_river.peg.type2;
+
+import java.util.NoSuchElementException;
+
+import com.lethe_river.util.primitive.function.CharPredicate;
+
+/**
+ * 内容を書換えられ，読み取った範囲を記録するソース.
+ *
+ * 読み取った位置の最大値に1を足した値を調べた範囲の終わりとして記録する．
+ * 終端を調べた場合は大きさに1を足した値となる．
+ * {@link IncrementalMemo}が規則ごとに調べた範囲を求めるために利用する．
+ *
+ * @author YuyaAizawa
+ */
+final class EditableSource implements Source {
+	private final StringBuilder text;
+	private LineIndex lines;
+	private int pos = 0;
+
+	/**
+	 * 調べた範囲の終わり
+	 */
+	private int examined = 0;
+
+	EditableSource(CharSequence text) {
+		this.text = new StringBuilder(text);
+		this.lines = new LineIndex(this.text);
+	}
+
+	/**
+	 * 指定した区間を文字列で置き換える．読み取り位置は先頭に戻る
+	 * @param offset 置き換える区間の開始位置
+	 * @param removed 置き換える区間の長さ
+	 * @param inserted 挿入する文字列
+	 */
+	void edit(int offset, int removed, CharSequence inserted) {
+		if(offset < 0 || removed < 0 || text.length() - removed < offset) {
+			throw new IndexOutOfBoundsException("offset: "+offset+", removed: "+removed+", length: "+text.length());
+		}
+		text.replace(offset, offset + removed, inserted.toString());
+		lines = new LineIndex(text);
+		pos = 0;
+		examined = 0;
+	}
+
+	CharSequence text() {
+		return text;
+	}
+
+	/**
+	 * 記録した調べた範囲の終わりを返す
+	 */
+	int examined() {
+		return examined;
+	}
+
+	/**
+	 * 調べた範囲の終わりを置き換える
+	 */
+	void setExamined(int examined) {
+		this.examined = examined;
+	}
+
+	private void examine(int end) {
+		if(examined < end) {
+			examined = end;
+		}
+	}
+
+	@Override
+	public int length() {
+		return text.length();
+	}
+
+	@Override
+	public boolean hasNext() {
+		examine(pos + 1);
+		return pos < text.length();
+	}
+
+	@Override
+	public char next() {
+		examine(pos + 1);
+		if(pos >= text.length()) {
+			throw new NoSuchElementException();
+		}
+		return text.charAt(pos++);
+	}
+
+	@Override
+	public int peek() {
+		examine(pos + 1);
+		return pos < text.length() ? text.charAt(pos) : END;
+	}
+
+	@Override
+	public boolean regionMatches(String str) {
+		int n = str.length();
+		int limit = Math.min(n, text.length() - pos);
+		for (int i = 0; i < limit; i++) {
+			if(text.charAt(pos + i) != str.charAt(i)) {
+				examine(pos + i + 1);
+				return false;
+			}
+		}
+		examine(pos + limit + (limit < n ? 1 : 0));
+		if(limit < n) {
+			return false;
+		}
+		pos += n;
+		return true;
+	}
+
+	@Override
+	public int scanWhile(CharPredicate predicate) {
+		int start = pos;
+		int length = text.length();
+		while(pos < length && predicate.test(text.charAt(pos))) {
+			pos++;
+		}
+		examine(pos + 1);
+		return pos - start;
+	}
+
+	@Override
+	public int indexOf(char c) {
+		int result = text.indexOf(String.valueOf(c), pos);
+		examine(result < 0 ? text.length() + 1 : result + 1);
+		return result;
+	}
+
+	@Override
+	public int index() {
+		return pos;
+	}
+
+	@Override
+	public int lineNum() {
+		return lines.lineNum(pos);
+	}
+
+	@Override
+	public int columnNum() {
+		return lines.columnNum(pos);
+	}
+
+	@Override
+	public void jump(int index) {
+		if(index < 0 || text.length() < index) {
+			throw new IndexOutOfBoundsException("index: "+index+", length: "+text.length());
+		}
+		pos = index;
+	}
+
+	@Override
+	public String makeString(int from, int to) {
+		examine(to);
+		return text.substring(from, to);
+	}
+
+	/**
+	 * 現在の内容を複製した，書換えられないソースを返す
+	 */
+	@Override
+	public Source duplicate() {
+		Source duplicate = Source.from(text.toString());
+		duplicate.jump(pos);
+		return duplicate;
+	}
+}
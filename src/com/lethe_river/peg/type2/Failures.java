@@ -0,0 +1,85 @@
+package com.lethe_river.peg.type2;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 解析中に最も後ろで失敗した終端記号を記録する.
+ *
+ * 終端記号は失敗するたびに開始位置とともに通知する．
+ * 記録した位置より前の失敗は比較1回で捨て，同じ位置の失敗は規則のみを記録する．
+ * 説明の文字列は報告するときまで生成しない．
+ * メモごとに1つ持ち，メモを共有する解析の間で共有する．
+ *
+ * @author YuyaAizawa
+ */
+final class Failures {
+	private static final Rule.RuleWithDescription[] NONE = new Rule.RuleWithDescription[0];
+
+	private int position = -1;
+	private Rule.RuleWithDescription[] expected = new Rule.RuleWithDescription[4];
+	private int size = 0;
+
+	/**
+	 * 終端記号の失敗を通知する
+	 * @param rule 失敗した終端記号
+	 * @param pos 終端記号の開始位置
+	 */
+	void fail(Rule.RuleWithDescription rule, int pos) {
+		if(pos < position) {
+			return;
+		}
+		if(pos > position) {
+			position = pos;
+			size = 0;
+		}
+		for (int i = 0; i < size; i++) {
+			if(expected[i] == rule) {
+				return;
+			}
+		}
+		if(size == expected.length) {
+			expected = Arrays.copyOf(expected, size * 2);
+		}
+		expected[size++] = rule;
+	}
+
+	/**
+	 * 最も後ろの失敗の位置を返す
+	 * @return 位置，失敗していなければ-1
+	 */
+	int position() {
+		return position;
+	}
+
+	/**
+	 * 指定した位置から始めた解析の失敗を表す例外を生成する.
+	 * 開始位置より前の失敗しか記録していなければ，開始位置で失敗したものとする．
+	 * @param start 解析の開始位置
+	 * @return 例外
+	 */
+	ParseException exception(int start) {
+		return position < start
+				? new ParseException(start, NONE)
+				: new ParseException(position, Arrays.copyOf(expected, size));
+	}
+
+	/**
+	 * 記録を捨てる
+	 */
+	void clear() {
+		position = -1;
+		size = 0;
+	}
+
+	/**
+	 * 規則の説明を重複を除いて返す
+	 */
+	static List<String> descriptions(Rule.RuleWithDescription[] rules) {
+		return Arrays.stream(rules)
+				.map(Rule.RuleWithDescription::description)
+				.distinct()
+				.collect(Collectors.toList());
+	}
+}
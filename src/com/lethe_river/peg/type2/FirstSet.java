@@ -0,0 +1,169 @@
+package com.lethe_river.peg.type2;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 規則が成功するときに最初に読み取りうる文字の集合．
+ *
+ * ASCIIの文字は1文字ずつ，それ以外の文字はまとめて1つとして扱う．
+ * 何も読み取らずに成功しうる規則は次の文字によらず成功しうるものとする．
+ * 集合は実際に読み取りうる文字を全て含んでいればよく，余分な文字を含んでもよい．
+ *
+ * @author YuyaAizawa
+ */
+final class FirstSet {
+
+	/**
+	 * {@link #dispatchTable(List)}のASCII以外の文字の行
+	 */
+	static final int NON_ASCII = 128;
+
+	/**
+	 * {@link #dispatchTable(List)}の終端の行
+	 */
+	static final int END = 129;
+
+	static final FirstSet EMPTY = new FirstSet(0L, 0L, false, false);
+	static final FirstSet NULLABLE = new FirstSet(0L, 0L, false, true);
+	static final FirstSet ANY_CHAR = new FirstSet(-1L, -1L, true, false);
+	static final FirstSet ANY = new FirstSet(-1L, -1L, true, true);
+
+	/**
+	 * 0から63までの文字
+	 */
+	private final long low;
+
+	/**
+	 * 64から127までの文字
+	 */
+	private final long high;
+	private final boolean nonAscii;
+	private final boolean nullable;
+
+	private FirstSet(long low, long high, boolean nonAscii, boolean nullable) {
+		this.low = low;
+		this.high = high;
+		this.nonAscii = nonAscii;
+		this.nullable = nullable;
+	}
+
+	/**
+	 * 1文字からなる集合を返す
+	 * @param c 文字
+	 * @return 集合
+	 */
+	static FirstSet of(char c) {
+		if(c < 64) {
+			return new FirstSet(1L << c, 0L, false, false);
+		}
+		if(c < 128) {
+			return new FirstSet(0L, 1L << (c - 64), false, false);
+		}
+		return new FirstSet(0L, 0L, true, false);
+	}
+
+	/**
+	 * 文字クラスが受理する文字の集合を返す
+	 * @param charClass 文字クラス
+	 * @return 集合
+	 */
+	static FirstSet of(Rule.CharClass charClass) {
+		return new FirstSet(charClass.lowBits(), charClass.highBits(), charClass.hasNonAscii(), false);
+	}
+
+	/**
+	 * 何も読み取らずに成功しうるかどうか
+	 */
+	boolean isNullable() {
+		return nullable;
+	}
+
+	/**
+	 * 指定した文字から始まる入力で成功しうるかどうか
+	 * @param c 文字，終端では{@link Source#END}
+	 */
+	boolean accepts(int c) {
+		if(nullable) {
+			return true;
+		}
+		if(c == Source.END) {
+			return false;
+		}
+		if(c < 64) {
+			return (low & 1L << c) != 0;
+		}
+		if(c < 128) {
+			return (high & 1L << (c - 64)) != 0;
+		}
+		return nonAscii;
+	}
+
+	/**
+	 * 和集合を返す
+	 */
+	FirstSet union(FirstSet other) {
+		return new FirstSet(low | other.low, high | other.high, nonAscii || other.nonAscii, nullable || other.nullable);
+	}
+
+	/**
+	 * 文字の集合はそのままで，何も読み取らずに成功しうるかどうかを変えた集合を返す
+	 */
+	FirstSet withNullable(boolean nullable) {
+		return new FirstSet(low, high, nonAscii, nullable);
+	}
+
+	/**
+	 * 連接の集合を返す．先頭の要素から何も読み取らずに成功しうる要素が続く間の和集合となる
+	 */
+	static FirstSet sequence(List<FirstSet> elements) {
+		FirstSet result = EMPTY;
+		for(FirstSet element : elements) {
+			result = result.union(element.withNullable(false));
+			if(!element.nullable) {
+				return result;
+			}
+		}
+		return result.withNullable(true);
+	}
+
+	/**
+	 * 選択肢ごとの集合から，次の文字で索引付けた試すべき選択肢の番号の表を生成する．
+	 * 0から127まではASCIIの文字，{@link #NON_ASCII}はそれ以外の文字，{@link #END}は終端の行．
+	 * 同じ内容の行は同じ配列を共有する．
+	 * @param alternatives 選択肢ごとの集合
+	 * @return 表
+	 */
+	static int[][] dispatchTable(List<FirstSet> alternatives) {
+		int[][] table = new int[END + 1][];
+		Map<BitSet, int[]> rows = new HashMap<>();
+		for (int c = 0; c <= END; c++) {
+			int ch = c == NON_ASCII ? 128 : c == END ? Source.END : c;
+			BitSet row = new BitSet();
+			for (int i = 0; i < alternatives.size(); i++) {
+				if(alternatives.get(i).accepts(ch)) {
+					row.set(i);
+				}
+			}
+			table[c] = rows.computeIfAbsent(row, r -> r.stream().toArray());
+		}
+		return table;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof FirstSet)) {
+			return false;
+		}
+		FirstSet other = (FirstSet) obj;
+		return low == other.low && high == other.high
+				&& nonAscii == other.nonAscii && nullable == other.nullable;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(low) * 31 + Long.hashCode(high) + (nonAscii ? 2 : 0) + (nullable ? 1 : 0);
+	}
+}
@@ -0,0 +1,50 @@
+package com.lethe_river.peg.type2;
+
+/**
+ * 文法を検証済みで，複数のスレッドから同時に利用できるパーサ.
+ *
+ * @author YuyaAizawa
+ *
+ * @param <T> 解析結果オブジェクトの型
+ * @see Parser#freeze()
+ */
+final class FrozenParser<T> extends Parser<T> {
+	private final Parser<T> parser;
+	private final Grammar grammar;
+
+	FrozenParser(Parser<T> parser) {
+		super(parser.getRule());
+		this.parser = parser;
+		this.grammar = parser.grammar();
+	}
+
+	@Override
+	Grammar grammar() {
+		return grammar;
+	}
+
+	@Override
+	Memo newMemo() {
+		return Memo.denseMemo(grammar);
+	}
+
+	@Override
+	public Parser<T> freeze() {
+		return this;
+	}
+
+	@Override
+	Object parseOrFailure(Source src, Memo memo) {
+		return parser.parseOrFailure(src, memo);
+	}
+
+	@Override
+	protected T eval(Source src, Memo memo) {
+		return parser.eval(src, memo);
+	}
+
+	@Override
+	Object apply(Source src, Memo memo) {
+		return parser.apply(src, memo);
+	}
+}
@@ -0,0 +1,687 @@
+package com.lethe_river.peg.type2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.lethe_river.peg.type2.Rule.Kind;
+
+/**
+ * 開始規則から到達可能な規則の集合．
+ *
+ * 各規則には文法内で0から始まる連続した番号が割り当てられる．
+ * 番号は文法ごとに独立しており，規則自身には書込まない．
+ * 規則のidの範囲が規則の数に比べて狭い通常の場合は，idから番号を配列で直接引く．
+ *
+ * 生成時に選択の前方参照を全て解決し，
+ * 何も読み取らずに成功しうる規則の繰り返しを不正な文法として拒否する．
+ * 左再帰する規則には種を成長させる規則を選ぶ．
+ * また各規則が最初に読み取りうる文字を求め，
+ * 選択には次の文字から試すべき選択肢を引く表を作る．
+ * 全ての選択肢が文字列の選択は1度に照合する．
+ * 切断や左再帰する規則に到達しうる規則には，結果オブジェクトを1回の走査で生成する印を付ける．
+ *
+ * これらの解析結果は文法が持ち，規則自身には書込まない．
+ * 解釈実行では{@link Memo#grammar()}の文法から引くため，同じ規則を含む文法が複数あっても互いに影響しない．
+ *
+ * @author YuyaAizawa
+ */
+public final class Grammar {
+
+	static final int NOT_LEFT_RECURSIVE = 0;
+
+	/**
+	 * 左再帰の輪を断つ規則．失敗を種として結果を成長させる
+	 */
+	static final int LEFT_RECURSION_HEAD = 1;
+
+	/**
+	 * 左再帰の輪に含まれる規則のうち，種を成長させない規則
+	 */
+	static final int LEFT_RECURSION_INVOLVED = 2;
+
+	private final Rule start;
+
+	/**
+	 * 番号で索引付けた規則
+	 */
+	private final Rule[] rules;
+
+	/**
+	 * 規則のidの最小値
+	 */
+	private final int minId;
+
+	/**
+	 * idから最小値を引いた値で索引付けた，規則の番号に1を足した値．含まない規則は0．
+	 * idの範囲が広すぎる場合はnull
+	 */
+	private final int[] indexesById;
+
+	/**
+	 * idの範囲が広すぎる場合の，規則の番号
+	 */
+	private final Map<Rule, Integer> sparseIndexes;
+
+	/**
+	 * 番号で索引付けた，規則が何も読み取らずに成功しうるかどうか
+	 */
+	private final boolean[] nullable;
+
+	/**
+	 * 番号で索引付けた，規則が最初に読み取りうる文字
+	 */
+	private final FirstSet[] first;
+
+	/**
+	 * 番号で索引付けた，左再帰における規則の役割
+	 */
+	private final int[] leftRecursion;
+
+	/**
+	 * 左再帰する規則を含むかどうか
+	 */
+	private final boolean hasLeftRecursion;
+
+	/**
+	 * 番号で索引付けた，受理判定と結果オブジェクトの生成を1回の走査で行わなければならないかどうか
+	 */
+	private final boolean[] singlePass;
+
+	/**
+	 * 番号で索引付けた，選択の次の文字で索引付けた試すべき選択肢の番号．表を使わない規則はnull
+	 * @see FirstSet#dispatchTable(List)
+	 */
+	private final int[][][] dispatch;
+
+	/**
+	 * 番号で索引付けた，全ての選択肢が文字列の選択と同じ文字列を受理する規則．それ以外の規則はnull
+	 */
+	private final Rule.Literals[] literals;
+
+	/**
+	 * 番号で索引付けた，選択の選択肢ごとの読み取り位置で最初に試しうる終端記号．
+	 * 表で選択肢を除いた場合に，除いた選択肢の失敗として記録する．表を使わない規則はnull
+	 */
+	private final Rule.RuleWithDescription[][][] firstTerms;
+
+	private Grammar(Rule start) {
+		this.start = start;
+
+		this.rules = collect(start).toArray(new Rule[0]);
+
+		int minId = Integer.MAX_VALUE;
+		int maxId = Integer.MIN_VALUE;
+		for(Rule rule : rules) {
+			minId = Math.min(minId, rule.id());
+			maxId = Math.max(maxId, rule.id());
+		}
+		this.minId = minId;
+		if((long) maxId - minId < Math.max(4L * rules.length, 1024)) {
+			this.indexesById = new int[maxId - minId + 1];
+			for (int i = 0; i < rules.length; i++) {
+				indexesById[rules[i].id() - minId] = i + 1;
+			}
+			this.sparseIndexes = null;
+		} else {
+			this.indexesById = null;
+			this.sparseIndexes = new HashMap<>();
+			for (int i = 0; i < rules.length; i++) {
+				sparseIndexes.put(rules[i], i);
+			}
+		}
+		this.nullable = computeNullable();
+		validate();
+		this.leftRecursion = markLeftRecursion();
+		this.hasLeftRecursion = Arrays.stream(leftRecursion).anyMatch(r -> r != NOT_LEFT_RECURSIVE);
+		this.first = computeFirst();
+		this.dispatch = new int[rules.length][][];
+		this.literals = new Rule.Literals[rules.length];
+		this.firstTerms = new Rule.RuleWithDescription[rules.length][][];
+		installDispatch();
+		this.singlePass = markEvaluation();
+	}
+
+	/**
+	 * 開始規則から到達可能な規則の集合を生成する
+	 * @param start 開始規則
+	 * @return 文法
+	 */
+	public static Grammar of(Rule start) {
+		return new Grammar(start);
+	}
+
+	/**
+	 * 開始パーサの規則から到達可能な規則の集合を生成する
+	 * @param start 開始パーサ
+	 * @return 文法
+	 */
+	public static Grammar of(Parser<?> start) {
+		return of(start.getRule());
+	}
+
+	private void validate() {
+		for(Rule rule : rules) {
+			if((rule.kind() == Kind.STAR || rule.kind() == Kind.PLUS)
+					&& isNullable(rule.rules().get(0))) {
+				throw new IllegalArgumentException("repetition of nullable rule: <" + rule.id() + ">");
+			}
+		}
+	}
+
+	/**
+	 * 左再帰する規則の役割を決める.
+	 *
+	 * 左再帰の輪を全て断つまで，輪に含まれる規則を1つずつ種を成長させる規則に選ぶ．
+	 * 選ばなかった輪に含まれる規則は，成長の途中の結果に依存するため結果を記録しない．
+	 * 規則の選び方は文法の開始規則によらない．
+	 */
+	private int[] markLeftRecursion() {
+		boolean[] heads = new boolean[rules.length];
+		Rule head;
+		while((head = findLeftRecursion(heads)) != null) {
+			heads[indexOf(head)] = true;
+		}
+		int[] leftRecursion = new int[rules.length];
+		for (int i = 0; i < rules.length; i++) {
+			leftRecursion[i] = heads[i] ? LEFT_RECURSION_HEAD
+					: isLeftRecursive(rules[i]) ? LEFT_RECURSION_INVOLVED
+					: NOT_LEFT_RECURSIVE;
+		}
+		return leftRecursion;
+	}
+
+	/**
+	 * 左再帰する規則を含むかどうか
+	 */
+	boolean hasLeftRecursion() {
+		return hasLeftRecursion;
+	}
+
+	/**
+	 * 受理判定の後で結果オブジェクトを生成し直せない規則を求める.
+	 *
+	 * 切断より前の記録はメモから，内容はソースから捨てられるため，切断に到達しうる規則は生成し直せない．
+	 * 左再帰する規則も，成長の途中の結果を受理判定の後で得られないため生成し直せない．
+	 * 結果は規則から到達可能な規則のみで決まり，文法の開始規則によらない．
+	 */
+	private boolean[] markEvaluation() {
+		boolean[] singlePass = new boolean[rules.length];
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for (int i = 0; i < rules.length; i++) {
+				if(!singlePass[i] && (rules[i].kind() == Kind.CUT
+						|| leftRecursion[i] != NOT_LEFT_RECURSIVE
+						|| rules[i].rules().stream().anyMatch(r -> singlePass[indexOf(r)]))) {
+					singlePass[i] = true;
+					changed = true;
+				}
+			}
+		}
+		return singlePass;
+	}
+
+	/**
+	 * 規則が何も読み取らずに自身を呼出しうるかどうか
+	 */
+	private boolean isLeftRecursive(Rule rule) {
+		boolean[] visited = new boolean[rules.length];
+		Deque<Rule> toVisit = new ArrayDeque<>(leftCalls(rule));
+		while(!toVisit.isEmpty()) {
+			Rule next = toVisit.pop();
+			if(next == rule) {
+				return true;
+			}
+			if(!visited[indexOf(next)]) {
+				visited[indexOf(next)] = true;
+				toVisit.addAll(leftCalls(next));
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 除外していない規則だけで成す左再帰の輪に含まれる規則を1つ探す
+	 * @param excluded 番号で索引付けた，除外する規則
+	 * @return 左再帰する規則，なければnull
+	 */
+	private Rule findLeftRecursion(boolean[] excluded) {
+		final int VISITING = 1;
+		final int VISITED = 2;
+		int[] states = new int[rules.length];
+
+		// 開始規則によらず同じ規則を選ぶよう，生成順に探す
+		Integer[] order = new Integer[rules.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(rules[a].id(), rules[b].id()));
+
+		for(int i : order) {
+			if(states[i] != 0 || excluded[i]) {
+				continue;
+			}
+			// 深さ優先探索の経路上の規則と，それぞれの次に調べる呼出し
+			Deque<Rule> path = new ArrayDeque<>();
+			Deque<Iterator<Rule>> calls = new ArrayDeque<>();
+			path.push(rules[i]);
+			calls.push(leftCalls(rules[i]).iterator());
+			states[i] = VISITING;
+
+			while(!path.isEmpty()) {
+				if(!calls.peek().hasNext()) {
+					states[indexOf(path.pop())] = VISITED;
+					calls.pop();
+					continue;
+				}
+				Rule next = calls.peek().next();
+				if(excluded[indexOf(next)]) {
+					continue;
+				}
+				int state = states[indexOf(next)];
+				if(state == VISITING) {
+					return next;
+				}
+				if(state == 0) {
+					states[indexOf(next)] = VISITING;
+					path.push(next);
+					calls.push(leftCalls(next).iterator());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 規則が何も読み取らずに呼出しうる規則を返す
+	 * @param rule 規則
+	 * @return 開始位置と同じ位置で呼出しうる規則
+	 */
+	List<Rule> leftCalls(Rule rule) {
+		switch(rule.kind()) {
+		case SEQUENCE:
+			List<Rule> result = new ArrayList<>();
+			for(Rule r : rule.rules()) {
+				result.add(r);
+				if(!isNullable(r)) {
+					break;
+				}
+			}
+			return result;
+		default:
+			return rule.rules();
+		}
+	}
+
+	/**
+	 * 何も読み取らずに成功しうる規則を変化がなくなるまで求める
+	 */
+	private boolean[] computeNullable() {
+		boolean[] nullable = new boolean[rules.length];
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for (int i = 0; i < rules.length; i++) {
+				if(!nullable[i] && isNullable(rules[i], nullable)) {
+					nullable[i] = true;
+					changed = true;
+				}
+			}
+		}
+		return nullable;
+	}
+
+	private boolean isNullable(Rule rule, boolean[] nullable) {
+		switch(rule.kind()) {
+		case TERM:
+			if(rule instanceof Rule.Literals) {
+				return ((Rule.Literals) rule).literals().contains("");
+			}
+			return rule instanceof Rule.FullMatch
+					&& ((Rule.FullMatch) rule).string().isEmpty();
+		case SEQUENCE:
+			return rule.rules().stream().allMatch(r -> nullable[indexOf(r)]);
+		case CHOICE:
+			return rule.rules().stream().anyMatch(r -> nullable[indexOf(r)]);
+		case PLUS:
+			return nullable[indexOf(rule.rules().get(0))];
+		case STAR:
+		case OPTION:
+		case AND_PREDICATE:
+		case NOT_PREDICATE:
+		case CUT:
+			return true;
+		default:
+			throw new Error();
+		}
+	}
+
+	/**
+	 * 最初に読み取りうる文字を変化がなくなるまで求める
+	 */
+	private FirstSet[] computeFirst() {
+		FirstSet[] first = new FirstSet[rules.length];
+		Arrays.fill(first, FirstSet.EMPTY);
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for (int i = 0; i < rules.length; i++) {
+				FirstSet f = firstSet(rules[i], first);
+				if(!f.equals(first[i])) {
+					first[i] = f;
+					changed = true;
+				}
+			}
+		}
+		return first;
+	}
+
+	private FirstSet firstSet(Rule rule, FirstSet[] first) {
+		switch(rule.kind()) {
+		case TERM:
+			if(rule instanceof Rule.FullMatch) {
+				String str = ((Rule.FullMatch) rule).string();
+				return str.isEmpty() ? FirstSet.NULLABLE : FirstSet.of(str.charAt(0));
+			}
+			if(rule instanceof Rule.Literals) {
+				return ((Rule.Literals) rule).literals().stream()
+						.map(str -> str.isEmpty() ? FirstSet.NULLABLE : FirstSet.of(str.charAt(0)))
+						.reduce(FirstSet.EMPTY, FirstSet::union);
+			}
+			if(rule instanceof Rule.CharClass) {
+				return FirstSet.of((Rule.CharClass) rule);
+			}
+			if(rule instanceof Rule.PredicatedChar) {
+				return FirstSet.ANY_CHAR;
+			}
+			return FirstSet.ANY;
+		case SEQUENCE:
+			return FirstSet.sequence(rule.rules().stream()
+					.map(r -> first[indexOf(r)])
+					.collect(Collectors.toList()));
+		case CHOICE:
+			return rule.rules().stream()
+					.map(r -> first[indexOf(r)])
+					.reduce(FirstSet.EMPTY, FirstSet::union);
+		case PLUS:
+			return first[indexOf(rule.rules().get(0))];
+		case STAR:
+		case OPTION:
+			return first[indexOf(rule.rules().get(0))].withNullable(true);
+		case AND_PREDICATE:
+		case NOT_PREDICATE:
+		case CUT:
+			return FirstSet.NULLABLE;
+		default:
+			return FirstSet.ANY;
+		}
+	}
+
+	/**
+	 * 選択に次の文字から試すべき選択肢を引く表を作る．
+	 * どの文字でも全ての選択肢を試す場合は作らない．
+	 * 全ての選択肢が文字列の選択には，代わりに同じ文字列を受理する{@link Rule.Literals}を作る．
+	 * いずれの場合も，試さなかった選択肢の失敗を記録するために選択肢ごとに最初に試しうる終端記号を求める
+	 */
+	private void installDispatch() {
+		for (int i = 0; i < rules.length; i++) {
+			if(!(rules[i] instanceof Rule.Choice)) {
+				continue;
+			}
+			List<Rule> alternatives = rules[i].rules();
+			if(alternatives.size() >= 2 && alternatives.stream().allMatch(r -> r instanceof Rule.FullMatch)) {
+				firstTerms[i] = firstTerms(alternatives);
+				literals[i] = new Rule.Literals(
+						Rule.Literals.Priority.FIRST_LISTED,
+						alternatives.stream()
+								.map(r -> ((Rule.FullMatch) r).string())
+								.collect(Collectors.toList()));
+				continue;
+			}
+			int[][] table = FirstSet.dispatchTable(alternatives.stream()
+					.map(this::firstSet)
+					.collect(Collectors.toList()));
+			if(Arrays.stream(table).anyMatch(row -> row.length < alternatives.size())) {
+				firstTerms[i] = firstTerms(alternatives);
+				dispatch[i] = table;
+			}
+		}
+	}
+
+	/**
+	 * 選択肢ごとに何も読み取らずに試しうる終端記号を求める
+	 */
+	private Rule.RuleWithDescription[][] firstTerms(List<Rule> alternatives) {
+		return alternatives.stream()
+				.map(this::firstTerms)
+				.toArray(Rule.RuleWithDescription[][]::new);
+	}
+
+	/**
+	 * 規則が何も読み取らずに試しうる終端記号を求める．否定の先読みの中は期待する終端記号ではないので含まない
+	 */
+	private Rule.RuleWithDescription[] firstTerms(Rule rule) {
+		Set<Rule.RuleWithDescription> terms = new LinkedHashSet<>();
+		boolean[] visited = new boolean[rules.length];
+		Deque<Rule> toVisit = new ArrayDeque<>();
+		toVisit.push(rule);
+		while(!toVisit.isEmpty()) {
+			Rule next = toVisit.pop();
+			if(visited[indexOf(next)]) {
+				continue;
+			}
+			visited[indexOf(next)] = true;
+			if(next instanceof Rule.RuleWithDescription && next.kind() == Kind.TERM) {
+				terms.add((Rule.RuleWithDescription) next);
+			} else if(next.kind() != Kind.NOT_PREDICATE) {
+				List<Rule> calls = leftCalls(next);
+				for (int i = calls.size() - 1; i >= 0; i--) {
+					toVisit.push(calls.get(i));
+				}
+			}
+		}
+		return terms.toArray(new Rule.RuleWithDescription[0]);
+	}
+
+	private static List<Rule> collect(Rule start) {
+		List<Rule> result = new ArrayList<>();
+		Set<Rule> visited = new HashSet<>();
+		Queue<Rule> toVisit = new ArrayDeque<>();
+
+		visited.add(start);
+		toVisit.add(start);
+		while(!toVisit.isEmpty()) {
+			Rule target = toVisit.poll();
+			result.add(target);
+			for(Rule rule : target.rules()) {
+				if(visited.add(rule)) {
+					toVisit.add(rule);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 開始規則を返す
+	 * @return 開始規則
+	 */
+	public Rule start() {
+		return start;
+	}
+
+	/**
+	 * 文法に含まれる規則の数を返す
+	 * @return 規則の数
+	 */
+	public int size() {
+		return rules.length;
+	}
+
+	/**
+	 * 指定した番号の規則を返す
+	 * @param index 番号
+	 * @return 規則
+	 * @throws IndexOutOfBoundsException 番号が範囲外の場合
+	 */
+	public Rule rule(int index) {
+		return rules[index];
+	}
+
+	/**
+	 * 規則が何も読み取らずに成功しうるかどうかを返す
+	 * @param rule 規則
+	 * @return 成功しうるならtrue
+	 * @throws IllegalArgumentException 規則が文法に含まれない場合
+	 */
+	public boolean isNullable(Rule rule) {
+		int index = indexOf(rule);
+		if(index < 0) {
+			throw new IllegalArgumentException();
+		}
+		return nullable[index];
+	}
+
+	/**
+	 * 規則が最初に読み取りうる文字を返す
+	 * @param rule 規則
+	 * @return 文字の集合
+	 * @throws IllegalArgumentException 規則が文法に含まれない場合
+	 */
+	FirstSet firstSet(Rule rule) {
+		int index = indexOf(rule);
+		if(index < 0) {
+			throw new IllegalArgumentException();
+		}
+		return first[index];
+	}
+
+	/**
+	 * 左再帰における規則の役割を返す
+	 * @param rule 規則
+	 * @return 役割，文法に含まれない規則は{@link #NOT_LEFT_RECURSIVE}
+	 */
+	int leftRecursion(Rule rule) {
+		if(!hasLeftRecursion) {
+			return NOT_LEFT_RECURSIVE;
+		}
+		int index = indexOf(rule);
+		return index < 0 ? NOT_LEFT_RECURSIVE : leftRecursion[index];
+	}
+
+	/**
+	 * 受理判定と結果オブジェクトの生成を1回の走査で行わなければならないかどうかを返す
+	 * @param rule 規則
+	 * @return 切断か左再帰する規則に到達しうる場合true，文法に含まれない規則はfalse
+	 */
+	boolean isSinglePass(Rule rule) {
+		int index = indexOf(rule);
+		return index >= 0 && singlePass[index];
+	}
+
+	/**
+	 * 全ての選択肢が文字列の選択と同じ文字列を受理する規則を返す
+	 * @param choice 選択
+	 * @return 規則，選択肢が文字列でないか文法に含まれない場合はnull
+	 */
+	Rule.Literals literals(Rule.Choice choice) {
+		int index = indexOf(choice);
+		return index < 0 ? null : literals[index];
+	}
+
+	/**
+	 * 選択の選択肢ごとに，読み取り位置で最初に試しうる終端記号を返す
+	 * @param choice 選択
+	 * @return 選択肢の番号で索引付けた終端記号，表を使わないか文法に含まれない場合はnull
+	 */
+	Rule.RuleWithDescription[][] expectedTerms(Rule.Choice choice) {
+		int index = indexOf(choice);
+		return index < 0 ? null : firstTerms[index];
+	}
+
+	/**
+	 * 選択の，読み取り位置で成功しうる選択肢の番号を順に返す．読み取り位置は変えない
+	 * @param choice 選択
+	 * @param src 読み取り位置のソース
+	 * @return 選択肢の番号，全ての選択肢を試す場合はnull
+	 */
+	int[] candidates(Rule.Choice choice, Source src) {
+		int index = indexOf(choice);
+		if(index < 0) {
+			return null;
+		}
+		if(literals[index] != null) {
+			return literals[index].candidates(src);
+		}
+		int[][] table = dispatch[index];
+		if(table == null) {
+			return null;
+		}
+		int c = src.peek();
+		return table[c == Source.END ? FirstSet.END : c < 128 ? c : FirstSet.NON_ASCII];
+	}
+
+	/**
+	 * 選択の全ての選択肢が失敗したときに，表で試さなかった選択肢の終端記号を失敗として記録する.
+	 * 試した選択肢はそれ自身が失敗を記録しているので，ここでは記録しない
+	 * @param choice 選択
+	 * @param pos 選択の開始位置
+	 * @param candidates 表で引いた，試した選択肢の番号
+	 * @param failures 失敗の記録
+	 */
+	void failSkipped(Rule.Choice choice, int pos, int[] candidates, Failures failures) {
+		Rule.RuleWithDescription[][] terms = expectedTerms(choice);
+		if(terms == null || pos < failures.position()) {
+			return;
+		}
+		for (int i = 0; i < terms.length; i++) {
+			if(contains(candidates, i)) {
+				continue;
+			}
+			for(Rule.RuleWithDescription term : terms[i]) {
+				failures.fail(term, pos);
+			}
+		}
+	}
+
+	private static boolean contains(int[] candidates, int alternative) {
+		for(int candidate : candidates) {
+			if(candidate == alternative) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 規則のこの文法内での番号を返す
+	 * @param rule 規則
+	 * @return 番号，含まれない場合は-1
+	 */
+	public int indexOf(Rule rule) {
+		int[] indexes = indexesById;
+		if(indexes == null) {
+			return sparseIndexes.getOrDefault(rule, -1);
+		}
+		int i = rule.id() - minId;
+		return 0 <= i && i < indexes.length ? indexes[i] - 1 : -1;
+	}
+
+	/**
+	 * 規則の番号をidから配列で直接引くかどうか
+	 */
+	boolean isDenselyIndexed() {
+		return indexesById != null;
+	}
+}
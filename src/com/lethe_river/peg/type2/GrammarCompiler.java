@@ -0,0 +1,588 @@
+package com.lethe_river.peg.type2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.lethe_river.util.primitive.function.CharPredicate;
+
+/**
+ * 規則のグラフを特化したノードの木に変換するコンパイラ．
+ *
+ * 変換後のノードは仮想呼出しの種類が少なく，
+ * 連接，選択，繰り返しは配列に対するループ，
+ * 文字列と文字の終端記号はノード内で直接比較される．
+ * 終端記号以外の規則は元の規則をキーとしてメモを利用するため，
+ * 同じメモを解釈実行と共有できる．
+ * 方針で記録しないとした規則はメモを参照しないノードに変換する．
+ * 選択で試す選択肢の表や左再帰する規則の役割はコンパイル時に文法から引くため，
+ * 実行時のメモが文法を持つ必要はない．
+ * 左再帰の輪を断つ規則は失敗を種として結果を成長させるノードに，輪に含まれる他の規則は記録しないノードに変換する．
+ *
+ * @author YuyaAizawa
+ */
+public final class GrammarCompiler {
+
+	private final Map<Rule, Node> compiled = new HashMap<>();
+	private final MemoPolicy policy;
+	private final Grammar grammar;
+
+	private GrammarCompiler(MemoPolicy policy) {
+		this.policy = policy;
+		this.grammar = policy.grammar();
+	}
+
+	/**
+	 * 全ての規則の結果をメモに記録するよう規則をコンパイルする
+	 * @param start 開始規則
+	 * @return コンパイル済みの規則
+	 * @throws IllegalArgumentException 不正な文法の場合
+	 */
+	public static CompiledRule compile(Rule start) {
+		return compile(MemoPolicy.all(Grammar.of(start)));
+	}
+
+	/**
+	 * 方針に従ってメモを利用する規則をコンパイルする
+	 * @param policy 方針
+	 * @return コンパイル済みの規則
+	 */
+	public static CompiledRule compile(MemoPolicy policy) {
+		Rule start = policy.grammar().start();
+		return new CompiledRule(start, new GrammarCompiler(policy).compileRule(start));
+	}
+
+	/**
+	 * パーサの受理判定をコンパイルする．
+	 * 返されるパーサはコンパイル済みの規則で受理判定を行ってから，
+	 * 元のパーサで結果オブジェクトを生成する．
+	 * 切断や左再帰する規則を含むパーサは受理判定の後で結果オブジェクトを生成し直せないため，
+	 * 元のパーサで1回の走査で読み取る．
+	 * @param start 開始パーサ
+	 * @return 受理判定をコンパイルしたパーサ
+	 * @throws IllegalArgumentException 文法が不正な場合
+	 */
+	public static <T> Parser<T> compile(Parser<T> start) {
+		boolean singlePass = start.grammar().isSinglePass(start.getRule());
+		CompiledRule compiledRule = compile(MemoPolicy.all(start.grammar()));
+		return new Parser<>(start.getRule()) {
+			@Override
+			Object parseOrFailure(Source src, Memo memo) {
+				if(singlePass) {
+					return start.parseFusedOrFailure(src, memo);
+				}
+				int start = src.index();
+				if(!compiledRule.parse(src, memo)) {
+					src.jump(start);
+					return FAILURE;
+				}
+				int end = src.index();
+
+				src.jump(start);
+				T t = eval(src, memo);
+				src.jump(end);
+
+				return t;
+			}
+
+			@Override
+			protected T eval(Source src, Memo memo) {
+				return start.eval(src, memo);
+			}
+		};
+	}
+
+	private Node compileRule(Rule rule) {
+		Node node = compiled.get(rule);
+		if(node != null) {
+			return node;
+		}
+		switch(grammar.leftRecursion(rule)) {
+		case Grammar.LEFT_RECURSION_HEAD: {
+			Growing growing = new Growing(rule);
+			compiled.put(rule, growing);
+			growing.body = compileBody(rule);
+			return growing;
+		}
+		case Grammar.LEFT_RECURSION_INVOLVED: {
+			// 成長途中の結果に依存するので記録しない
+			Unmemoized unmemoized = new Unmemoized();
+			compiled.put(rule, unmemoized);
+			unmemoized.body = compileBody(rule);
+			return unmemoized;
+		}
+		}
+
+		switch(rule.kind()) {
+		case TERM:
+			node = compileTerm(rule);
+			compiled.put(rule, node);
+			return node;
+		case SEQUENCE:
+		case CHOICE:
+		case STAR:
+		case PLUS:
+		case OPTION:
+		case AND_PREDICATE:
+		case NOT_PREDICATE:
+			// 再帰に備えて本体より先に登録する
+			if(!policy.isMemoized(rule)) {
+				Unmemoized unmemoized = new Unmemoized();
+				compiled.put(rule, unmemoized);
+				unmemoized.body = compileBody(rule);
+				return unmemoized;
+			}
+			Memoized memoized = new Memoized(rule);
+			compiled.put(rule, memoized);
+			memoized.body = compileBody(rule);
+			return memoized;
+		default:
+			node = new Interpreted(rule);
+			compiled.put(rule, node);
+			return node;
+		}
+	}
+
+	private Node compileTerm(Rule rule) {
+		if(rule instanceof Rule.FullMatch) {
+			return new Literal(List.of((Rule.FullMatch) rule));
+		}
+		if(rule instanceof Rule.PredicatedChar) {
+			return new Predicated((Rule.PredicatedChar) rule);
+		}
+		if(rule instanceof Rule.Literals) {
+			return new LiteralSet((Rule.Literals) rule);
+		}
+		return new Interpreted(rule);
+	}
+
+	private Node compileBody(Rule rule) {
+		switch(rule.kind()) {
+		case SEQUENCE:
+			return new Sequence(compileSequence(rule.rules()));
+		case CHOICE:
+			return new Choice(grammar, (Rule.Choice) rule, compileAll(rule.rules()));
+		case STAR:
+			if(rule.rules().get(0) instanceof Rule.PredicatedChar) {
+				return new Scan((Rule.PredicatedChar) rule.rules().get(0), 0);
+			}
+			return new Star(compileRule(rule.rules().get(0)));
+		case PLUS:
+			if(rule.rules().get(0) instanceof Rule.PredicatedChar) {
+				return new Scan((Rule.PredicatedChar) rule.rules().get(0), 1);
+			}
+			return new Plus(compileRule(rule.rules().get(0)));
+		case OPTION:
+			return new Option(compileRule(rule.rules().get(0)));
+		case AND_PREDICATE:
+			return new AndPredicate(compileRule(rule.rules().get(0)));
+		case NOT_PREDICATE:
+			return new NotPredicate(compileRule(rule.rules().get(0)));
+		default:
+			throw new Error();
+		}
+	}
+
+	private Node[] compileAll(List<Rule> rules) {
+		Node[] nodes = new Node[rules.size()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = compileRule(rules.get(i));
+		}
+		return nodes;
+	}
+
+	/**
+	 * 連接の要素をコンパイルする．連続する文字列は1つにまとめる．
+	 */
+	private Node[] compileSequence(List<Rule> rules) {
+		List<Node> nodes = new ArrayList<>();
+		List<Rule.FullMatch> literal = new ArrayList<>();
+		for(Rule rule : rules) {
+			if(rule instanceof Rule.FullMatch) {
+				literal.add((Rule.FullMatch) rule);
+				continue;
+			}
+			if(!literal.isEmpty()) {
+				nodes.add(new Literal(literal));
+				literal.clear();
+			}
+			nodes.add(compileRule(rule));
+		}
+		if(!literal.isEmpty()) {
+			nodes.add(new Literal(literal));
+		}
+		return nodes.toArray(new Node[nodes.size()]);
+	}
+
+	/**
+	 * コンパイル済みの規則
+	 */
+	public static final class CompiledRule {
+		private final Rule rule;
+		private final Node root;
+
+		private CompiledRule(Rule rule, Node root) {
+			this.rule = rule;
+			this.root = root;
+		}
+
+		/**
+		 * コンパイル元の規則を返す
+		 * @return 規則
+		 */
+		public Rule getRule() {
+			return rule;
+		}
+
+		/**
+		 * メモを利用して指定したソースをパースし結果を返す．
+		 * 結果はコンパイル元の規則を文法を持つメモで読み取った{@link Rule#parse(Source, Memo)}と同じ．
+		 * @param src ソース
+		 * @param memo メモ
+		 * @return 受理すればtrue
+		 */
+		public boolean parse(Source src, Memo memo) {
+			return root.match(src, memo);
+		}
+	}
+
+	private static abstract class Node {
+		/**
+		 * 成功した場合ソースの読み取り位置は進められる．
+		 * 失敗した場合の読み取り位置は未定義．
+		 */
+		abstract boolean match(Source src, Memo memo);
+	}
+
+	private static final class Memoized extends Node {
+		private final Rule rule;
+		private Node body;
+
+		Memoized(Rule rule) {
+			this.rule = rule;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			int start = src.index();
+			int r = memo.getEnd(rule, start);
+			switch (r) {
+			case Memo.ERROR:
+				return false;
+			case Memo.NULL:
+				if(body.match(src, memo)) {
+					memo.putEnd(rule, start, src.index());
+					return true;
+				} else {
+					memo.putError(rule, start);
+					return false;
+				}
+			default:
+				src.jump(r);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 左再帰の輪を断つ規則．失敗を種として記録し，結果が伸びなくなるまで本体を繰り返す
+	 */
+	private static final class Growing extends Node {
+		private final Rule rule;
+		private Node body;
+
+		Growing(Rule rule) {
+			this.rule = rule;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			int start = src.index();
+			int r = memo.getEnd(rule, start);
+			if(r == Memo.ERROR) {
+				return false;
+			}
+			if(r != Memo.NULL) {
+				src.jump(r);
+				return true;
+			}
+			memo.putError(rule, start);
+			if(memo.getEnd(rule, start) != Memo.ERROR) {
+				throw new IllegalStateException("left recursion requires memo: <" + rule.id() + ">");
+			}
+			int end = Memo.ERROR;
+			while(true) {
+				src.jump(start);
+				if(!body.match(src, memo) || src.index() <= end) {
+					break;
+				}
+				end = src.index();
+				memo.putEnd(rule, start, end);
+			}
+			if(end == Memo.ERROR) {
+				return false;
+			}
+			src.jump(end);
+			return true;
+		}
+	}
+
+	private static final class Unmemoized extends Node {
+		private Node body;
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			return body.match(src, memo);
+		}
+	}
+
+	private static final class Interpreted extends Node {
+		private final Rule rule;
+
+		Interpreted(Rule rule) {
+			this.rule = rule;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			return rule.parse(src, memo);
+		}
+	}
+
+	/**
+	 * 連続する文字列．失敗した場合のみ，どの文字列で失敗したかを求める
+	 */
+	private static final class Literal extends Node {
+		private final String str;
+		private final Rule.FullMatch[] parts;
+
+		Literal(List<Rule.FullMatch> parts) {
+			this.str = parts.stream().map(Rule.FullMatch::string).collect(Collectors.joining());
+			this.parts = parts.toArray(new Rule.FullMatch[0]);
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			if(src.regionMatches(str)) {
+				return true;
+			}
+			for(Rule.FullMatch part : parts) {
+				if(!src.regionMatches(part.string())) {
+					memo.failures().fail(part, src.index());
+					break;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class LiteralSet extends Node {
+		private final Rule.Literals literals;
+
+		LiteralSet(Rule.Literals literals) {
+			this.literals = literals;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			if(literals.match(src) >= 0) {
+				return true;
+			}
+			memo.failures().fail(literals, src.index());
+			return false;
+		}
+	}
+
+	private static final class Predicated extends Node {
+		private final Rule.PredicatedChar rule;
+		private final CharPredicate predicate;
+
+		Predicated(Rule.PredicatedChar rule) {
+			this.rule = rule;
+			this.predicate = rule.predicate();
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			int pos = src.index();
+			if(src.hasNext() && predicate.test(src.next())) {
+				return true;
+			}
+			memo.failures().fail(rule, pos);
+			return false;
+		}
+	}
+
+	/**
+	 * 文字の繰り返し
+	 */
+	private static final class Scan extends Node {
+		private final Rule.PredicatedChar rule;
+		private final CharPredicate predicate;
+		private final int min;
+
+		Scan(Rule.PredicatedChar rule, int min) {
+			this.rule = rule;
+			this.predicate = rule.predicate();
+			this.min = min;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			int count = src.scanWhile(predicate);
+			memo.failures().fail(rule, src.index());
+			return count >= min;
+		}
+	}
+
+	private static final class Sequence extends Node {
+		private final Node[] nodes;
+
+		Sequence(Node[] nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			for (int i = 0; i < nodes.length; i++) {
+				if(!nodes[i].match(src, memo)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class Choice extends Node {
+		private final Grammar grammar;
+		private final Rule.Choice rule;
+		private final Node[] nodes;
+
+		Choice(Grammar grammar, Rule.Choice rule, Node[] nodes) {
+			this.grammar = grammar;
+			this.rule = rule;
+			this.nodes = nodes;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			int pos = src.index();
+			int[] candidates = grammar.candidates(rule, src);
+			int count = candidates == null ? nodes.length : candidates.length;
+			for (int i = 0; i < count; i++) {
+				if(nodes[candidates == null ? i : candidates[i]].match(src, memo)) {
+					return true;
+				}
+				if(pos < memo.cutPosition()) {
+					return false;
+				}
+				src.jump(pos);
+			}
+			if(candidates != null) {
+				grammar.failSkipped(rule, pos, candidates, memo.failures());
+			}
+			return false;
+		}
+	}
+
+	private static final class Star extends Node {
+		private final Node node;
+
+		Star(Node node) {
+			this.node = node;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			while(true) {
+				int pos = src.index();
+				if(!node.match(src, memo)) {
+					if(pos < memo.cutPosition()) {
+						return false;
+					}
+					src.jump(pos);
+					return true;
+				}
+			}
+		}
+	}
+
+	private static final class Plus extends Node {
+		private final Node node;
+
+		Plus(Node node) {
+			this.node = node;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			if(!node.match(src, memo)) {
+				return false;
+			}
+			while(true) {
+				int pos = src.index();
+				if(!node.match(src, memo)) {
+					if(pos < memo.cutPosition()) {
+						return false;
+					}
+					src.jump(pos);
+					return true;
+				}
+			}
+		}
+	}
+
+	private static final class Option extends Node {
+		private final Node node;
+
+		Option(Node node) {
+			this.node = node;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			int pos = src.index();
+			if(!node.match(src, memo)) {
+				if(pos < memo.cutPosition()) {
+					return false;
+				}
+				src.jump(pos);
+			}
+			return true;
+		}
+	}
+
+	private static final class AndPredicate extends Node {
+		private final Node node;
+
+		AndPredicate(Node node) {
+			this.node = node;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			int pos = src.index();
+			boolean result = node.match(src, memo);
+			src.jump(pos);
+			return result;
+		}
+	}
+
+	private static final class NotPredicate extends Node {
+		private final Node node;
+
+		NotPredicate(Node node) {
+			this.node = node;
+		}
+
+		@Override
+		boolean match(Source src, Memo memo) {
+			int pos = src.index();
+			boolean result = node.match(src, memo);
+			src.jump(pos);
+			return !result;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.lethe_river.peg.type2;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 負でない値の分布を固定の相対誤差で数えるヒストグラム.
+ *
+ * 2のべきごとの区間を{@value #SUB_COUNT}等分した桶で数え，桶の幅は値の1/{@value #SUB_COUNT}以下となる．
+ * {@value #SUB_COUNT}の2倍未満の値は正確に数える．
+ * 記録は桶の加算1回で，複数のスレッドから同時に記録できる．
+ *
+ * @author YuyaAizawa
+ */
+public final class Histogram {
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int SUB_MASK = SUB_COUNT - 1;
+	private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	Histogram() {}
+
+	/**
+	 * 値を1つ数える
+	 * @param value 値，負の値は0とする
+	 */
+	void record(long value) {
+		counts.incrementAndGet(index(Math.max(0, value)));
+	}
+
+	/**
+	 * 現在の分布を写し取る．記録と同時に写し取った場合は途中の記録を含まないことがある
+	 * @return 分布
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy);
+	}
+
+	private static int index(long value) {
+		if(value < SUB_COUNT) {
+			return (int) value;
+		}
+		int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) & SUB_MASK);
+	}
+
+	/**
+	 * 桶に入る最小の値
+	 */
+	private static long lowest(int index) {
+		int row = index >>> SUB_BITS;
+		if(row == 0) {
+			return index;
+		}
+		return (long) (SUB_COUNT + (index & SUB_MASK)) << (row - 1);
+	}
+
+	/**
+	 * 桶に入る最大の値
+	 */
+	private static long highest(int index) {
+		int row = index >>> SUB_BITS;
+		return row == 0 ? index : lowest(index) + (1L << (row - 1)) - 1;
+	}
+
+	/**
+	 * ある時点の分布
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+
+		private Snapshot(long[] counts) {
+			this.counts = counts;
+			long count = 0;
+			for(long c : counts) {
+				count += c;
+			}
+			this.count = count;
+		}
+
+		/**
+		 * 記録した値の数を返す
+		 * @return 数
+		 */
+		public long count() {
+			return count;
+		}
+
+		/**
+		 * 指定した割合の値がそれ以下となる値を返す
+		 * @param percentile 百分率
+		 * @return 値の入る桶の最大の値，記録がなければ0
+		 * @throws IllegalArgumentException 百分率が0から100の範囲にない場合
+		 */
+		public long percentile(double percentile) {
+			if(!(0 <= percentile && percentile <= 100)) {
+				throw new IllegalArgumentException("percentile: " + percentile);
+			}
+			long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if(seen >= rank) {
+					return highest(i);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * 最大値を返す
+		 * @return 最大値の入る桶の最大の値，記録がなければ0
+		 */
+		public long max() {
+			for (int i = counts.length - 1; i >= 0; i--) {
+				if(counts[i] > 0) {
+					return highest(i);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * 平均を返す．桶ごとの値は桶の中央とする
+		 * @return 平均，記録がなければ0
+		 */
+		public double mean() {
+			if(count == 0) {
+				return 0;
+			}
+			double sum = 0;
+			for (int i = 0; i < counts.length; i++) {
+				if(counts[i] > 0) {
+					sum += counts[i] * ((lowest(i) + highest(i)) / 2.0);
+				}
+			}
+			return sum / count;
+		}
+
+		/**
+		 * この分布から以前の分布を差し引いた，その間に記録した値の分布を返す
+		 * @param earlier 同じヒストグラムの以前の分布
+		 * @return 差分
+		 */
+		public Snapshot minus(Snapshot earlier) {
+			long[] diff = new long[counts.length];
+			for (int i = 0; i < diff.length; i++) {
+				diff[i] = counts[i] - earlier.counts[i];
+			}
+			return new Snapshot(diff);
+		}
+
+		@Override
+		public String toString() {
+			return "count: " + count
+					+ ", p50: " + percentile(50)
+					+ ", p99: " + percentile(99)
+					+ ", p99.9: " + percentile(99.9)
+					+ ", max: " + max();
+		}
+	}
+}
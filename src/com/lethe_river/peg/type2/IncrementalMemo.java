@@ -0,0 +1,245 @@
+package com.lethe_river.peg.type2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 規則ごとに調べた範囲を記録し，ソースの書換えの後も再利用できるメモ．
+ *
+ * 記録は開始位置ごとの列に持ち，終了位置と調べた範囲の終わりは開始位置からの相対位置で表す．
+ * 書換えでは列の並びを継ぎ直すだけで，書換えより後ろの記録の位置を1つずつ直す必要はない．
+ * 調べた範囲が書換えた区間に掛かる記録のみを捨てる．
+ *
+ * 調べた範囲は結果が記録されていなかった規則の評価の間に{@link EditableSource}が読み取った範囲で求める．
+ * 記録された結果を利用した場合は，その記録の範囲を呼出し元の範囲に加える．
+ * 失敗した終端記号は読み取りごとに記録し直すため，記録された結果の内部の失敗は含まない．
+ *
+ * @author YuyaAizawa
+ */
+final class IncrementalMemo implements Memo {
+	private final EditableSource src;
+	private final Grammar grammar;
+
+	/**
+	 * 開始位置で索引付けた列．記録のない列はnull
+	 */
+	private final ArrayList<Column> columns = new ArrayList<>();
+
+	/**
+	 * 記録した調べた範囲の長さの最大値．書換えの前にこれより前の列は調べなくてよい
+	 */
+	private int maxExamined = 0;
+
+	/**
+	 * 記録の数
+	 */
+	private int size = 0;
+
+	// 評価中の規則のスタック
+	private Rule[] frameRules = new Rule[16];
+	private int[] frameStarts = new int[16];
+	private int[] frameExamined = new int[16];
+	private int depth = 0;
+
+	private int cutPosition = 0;
+	private final Failures failures = new Failures();
+
+	IncrementalMemo(EditableSource src, Grammar grammar) {
+		this.src = src;
+		this.grammar = grammar;
+		columns.addAll(Collections.nCopies(src.length() + 1, null));
+	}
+
+	@Override
+	public void putEnd(Rule rule, int start, int end) {
+		put(rule, start, end - start);
+	}
+
+	@Override
+	public void putError(Rule rule, int start) {
+		put(rule, start, ERROR);
+	}
+
+	@Override
+	public int getEnd(Rule rule, int start) {
+		Column column = columns.get(start);
+		int i = column == null ? -1 : column.indexOf(rule);
+		if(i < 0) {
+			if(depth == frameRules.length) {
+				frameRules = Arrays.copyOf(frameRules, depth * 2);
+				frameStarts = Arrays.copyOf(frameStarts, depth * 2);
+				frameExamined = Arrays.copyOf(frameExamined, depth * 2);
+			}
+			frameRules[depth] = rule;
+			frameStarts[depth] = start;
+			frameExamined[depth] = src.examined();
+			depth++;
+			src.setExamined(start);
+			return NULL;
+		}
+		src.setExamined(Math.max(src.examined(), start + column.examined[i]));
+		int end = column.ends[i];
+		return end == ERROR ? ERROR : start + end;
+	}
+
+	private void put(Rule rule, int start, int end) {
+		int examined = Math.max(src.examined(), end == ERROR ? start : start + end);
+		if(depth > 0 && frameRules[depth - 1] == rule && frameStarts[depth - 1] == start) {
+			depth--;
+			src.setExamined(Math.max(frameExamined[depth], examined));
+		}
+		// 対応する評価の開始がない場合も，読み取った範囲は評価した範囲を含む
+		Column column = columns.get(start);
+		if(column == null) {
+			column = new Column();
+			columns.set(start, column);
+		}
+		if(column.put(rule, end, examined - start)) {
+			size++;
+		}
+		maxExamined = Math.max(maxExamined, examined - start);
+	}
+
+	@Override
+	public void cut(int pos) {
+		cutPosition = Math.max(cutPosition, pos);
+	}
+
+	@Override
+	public int cutPosition() {
+		return cutPosition;
+	}
+
+	@Override
+	public Failures failures() {
+		return failures;
+	}
+
+	@Override
+	public Grammar grammar() {
+		return grammar;
+	}
+
+	/**
+	 * ソースの書換えに合わせて記録を捨て，後ろの記録をずらす
+	 * @param offset 置き換えた区間の開始位置
+	 * @param removed 置き換えた区間の長さ
+	 * @param inserted 挿入した文字数
+	 */
+	void edit(int offset, int removed, int inserted) {
+		// 書換えた区間まで調べた記録のない列は記録を見ずに飛ばす
+		for (int start = Math.max(0, offset - maxExamined); start < offset; start++) {
+			Column column = columns.get(start);
+			if(column != null && column.maxExamined > offset - start) {
+				size -= column.removeExaminedBeyond(offset - start);
+			}
+		}
+		// 置き換えた区間から始まる記録を捨てる．挿入のみの場合も開始位置の記録は挿入した文字を調べている
+		int replaced = Math.max(removed, 1);
+		List<Column> range = columns.subList(offset, offset + replaced);
+		for(Column column : range) {
+			if(column != null) {
+				size -= column.size;
+			}
+		}
+		range.clear();
+		range.addAll(Collections.nCopies(inserted + replaced - removed, null));
+		restart();
+	}
+
+	/**
+	 * 読み取りを先頭からやり直す
+	 */
+	void restart() {
+		depth = 0;
+		cutPosition = 0;
+		src.setExamined(0);
+		failures.clear();
+	}
+
+	/**
+	 * 記録の数を返す
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 1つの開始位置の記録
+	 */
+	private static final class Column {
+		Rule[] rules = new Rule[4];
+
+		/**
+		 * 開始位置からの終了位置，またはERROR
+		 */
+		int[] ends = new int[4];
+
+		/**
+		 * 開始位置からの調べた範囲の終わり
+		 */
+		int[] examined = new int[4];
+		int size = 0;
+
+		/**
+		 * 記録の調べた範囲の終わりの最大値
+		 */
+		int maxExamined = 0;
+
+		int indexOf(Rule rule) {
+			for (int i = 0; i < size; i++) {
+				if(rules[i] == rule) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * 記録する
+		 * @return 記録を追加した場合true，置き換えた場合false
+		 */
+		boolean put(Rule rule, int end, int examined) {
+			int i = indexOf(rule);
+			boolean added = i < 0;
+			if(added) {
+				if(size == rules.length) {
+					rules = Arrays.copyOf(rules, size * 2);
+					ends = Arrays.copyOf(ends, size * 2);
+					this.examined = Arrays.copyOf(this.examined, size * 2);
+				}
+				i = size++;
+				rules[i] = rule;
+			}
+			ends[i] = end;
+			this.examined[i] = examined;
+			maxExamined = Math.max(maxExamined, examined);
+			return added;
+		}
+
+		/**
+		 * 調べた範囲の終わりが指定した相対位置より後ろの記録を捨てる
+		 * @return 捨てた記録の数
+		 */
+		int removeExaminedBeyond(int limit) {
+			int j = 0;
+			maxExamined = 0;
+			for (int i = 0; i < size; i++) {
+				if(examined[i] <= limit) {
+					rules[j] = rules[i];
+					ends[j] = ends[i];
+					examined[j] = examined[i];
+					maxExamined = Math.max(maxExamined, examined[i]);
+					j++;
+				}
+			}
+			Arrays.fill(rules, j, size, null);
+			int removed = size - j;
+			size = j;
+			return removed;
+		}
+	}
+}
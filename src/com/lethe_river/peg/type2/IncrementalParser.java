@@ -0,0 +1,67 @@
+package com.lethe_river.peg.type2;
+
+/**
+ * 書換えられる文字列を繰り返し読み取るパーサ.
+ *
+ * ソースとメモを読み取りの間で保持し，書換えでは調べた範囲が書換えた区間に掛かる規則の記録のみを捨てる．
+ * このため書換えの後の受理判定は，書換えた区間とそれを調べていた規則のみを評価し直す．
+ * ただし結果オブジェクトは記録しないため，{@link #parse()}は受理判定で記録を再利用しても，
+ * 結果オブジェクトを読み取るたびに全体から生成し直し，文字列の長さに比例する時間が掛かる．
+ * 結果オブジェクトは位置を含んだり，結合の際に書換えられたりしうるため，読み取りの間で共有できない．
+ * 複数のスレッドから同時に利用することはできない．
+ *
+ * @author YuyaAizawa
+ *
+ * @param <T> 解析結果オブジェクトの型
+ * @see Parser#incremental(CharSequence)
+ */
+public final class IncrementalParser<T> {
+	private final Parser<T> parser;
+	private final EditableSource src;
+	private final IncrementalMemo memo;
+
+	IncrementalParser(Parser<T> parser, CharSequence text) {
+		this.parser = parser;
+		this.src = new EditableSource(text);
+		this.memo = new IncrementalMemo(src, parser.grammar());
+	}
+
+	/**
+	 * 現在の文字列の先頭からオブジェクトを読み取る
+	 * @return 結果オブジェクト
+	 * @throws ParseException 解析失敗の場合
+	 */
+	public T parse() {
+		memo.restart();
+		src.jump(0);
+		return parser.parse(src, memo);
+	}
+
+	/**
+	 * 文字列の指定した区間を置き換える
+	 * @param offset 置き換える区間の開始位置
+	 * @param removed 置き換える区間の長さ
+	 * @param inserted 挿入する文字列
+	 * @throws IndexOutOfBoundsException 区間が文字列に含まれない場合
+	 */
+	public void edit(int offset, int removed, CharSequence inserted) {
+		src.edit(offset, removed, inserted);
+		memo.edit(offset, removed, inserted.length());
+	}
+
+	/**
+	 * 現在の文字列を返す
+	 * @return 文字列
+	 */
+	public String text() {
+		return src.text().toString();
+	}
+
+	/**
+	 * 保持している規則の結果の記録の数を返す
+	 * @return 記録の数
+	 */
+	public int memoSize() {
+		return memo.size();
+	}
+}
@@ -0,0 +1,120 @@
+package com.lethe_river.peg.type2;
+
+import java.util.Arrays;
+
+/**
+ * 文字列中の改行の位置から行番号と列番号を求める索引.
+ *
+ * 改行の位置は求められた位置までを一定の大きさごとに少しずつ求める．
+ * 直前に求めた行とその前後の行は探索せずに答えるため，
+ * 位置の順に求める場合は1回あたり定数時間となる．
+ * 同じ内容を共有するソースの間で共有できる．
+ *
+ * @author YuyaAizawa
+ */
+final class LineIndex {
+	private static final int CHUNK_SIZE = 1 << 12;
+	private static final char CR = 0x0D;
+	private static final char LF = 0x0A;
+
+	private final CharSequence chars;
+
+	/**
+	 * 改行の位置．CRLFはLFの位置
+	 */
+	private int[] breaks = new int[16];
+	private int size = 0;
+
+	/**
+	 * これより前の改行は全て求めてある
+	 */
+	private int scanned = 0;
+
+	/**
+	 * 直前に求めた位置より前の改行の数
+	 */
+	private int cursor = 0;
+
+	LineIndex(CharSequence chars) {
+		this.chars = chars;
+	}
+
+	/**
+	 * 指定した位置の行番号を返す
+	 * @param index 位置
+	 * @return 行番号(1-based)
+	 */
+	synchronized int lineNum(int index) {
+		return breaksBefore(index) + 1;
+	}
+
+	/**
+	 * 指定した位置の列番号を返す
+	 * @param index 位置
+	 * @return 列番号(1-based)
+	 */
+	synchronized int columnNum(int index) {
+		int line = breaksBefore(index);
+		int lineStart = line == 0 ? 0 : breaks[line - 1] + 1;
+		return index - lineStart + 1;
+	}
+
+	/**
+	 * 指定した位置より前の改行の数を返す
+	 */
+	private int breaksBefore(int index) {
+		scanTo(index);
+		if(!isOnLine(cursor, index)) {
+			if(isOnLine(cursor + 1, index)) {
+				cursor++;
+			} else if(isOnLine(cursor - 1, index)) {
+				cursor--;
+			} else {
+				int idx = Arrays.binarySearch(breaks, 0, size, index);
+				cursor = idx >= 0 ? idx : -idx - 1;
+			}
+		}
+		return cursor;
+	}
+
+	/**
+	 * 指定した位置より前の改行がちょうどline個かどうか
+	 */
+	private boolean isOnLine(int line, int index) {
+		return 0 <= line && line <= size
+				&& (line == 0 || breaks[line - 1] < index)
+				&& (line == size || index <= breaks[line]);
+	}
+
+	/**
+	 * 指定した位置より前の改行を求める
+	 */
+	private void scanTo(int index) {
+		int length = chars.length();
+		while(scanned < index && scanned < length) {
+			int end = Math.min(length, scanned + CHUNK_SIZE);
+			int i = scanned;
+			for (; i < end; i++) {
+				char c = chars.charAt(i);
+				if(c == LF) {
+					add(i);
+				} else if(c == CR) {
+					if(i+1 < length && chars.charAt(i+1) == LF) {
+						add(i+1);
+						i++;
+					} else {
+						add(i);
+					}
+				}
+			}
+			scanned = i;
+		}
+	}
+
+	private void add(int index) {
+		if(size == breaks.length) {
+			breaks = Arrays.copyOf(breaks, size * 2);
+		}
+		breaks[size++] = index;
+	}
+}
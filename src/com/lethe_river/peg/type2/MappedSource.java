@@ -0,0 +1,307 @@
+package com.lethe_river.peg.type2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+
+import com.lethe_river.util.primitive.function.CharPredicate;
+
+/**
+ * メモリに写像したファイルから直接読み取るソース.
+ *
+ * 位置はファイル先頭からのバイト数で表す．
+ * Latin-1では1バイトが1文字に対応する．
+ * UTF-8では読み取った文字の分だけ位置が進み，ASCIIの文字は変換なしで読み取る．
+ * 補助文字は上位サロゲートを先頭の位置で，下位サロゲートを先頭から2バイト目の位置で読み取る．
+ * 文字列の生成は指定した区間のみを変換する．
+ *
+ * @author YuyaAizawa
+ */
+final class MappedSource implements Source {
+	private static final char REPLACEMENT = '�';
+
+	private final ByteBuffer bytes;
+	private final boolean utf8;
+	private final LineIndex lines;
+	private int pos = 0;
+
+	private MappedSource(ByteBuffer bytes, boolean utf8, LineIndex lines) {
+		this.bytes = bytes;
+		this.utf8 = utf8;
+		this.lines = lines != null ? lines : new LineIndex(new ByteChars(bytes));
+	}
+
+	/**
+	 * ファイルをメモリに写像する
+	 * @param path ファイル
+	 * @param utf8 UTF-8ならtrue，Latin-1ならfalse
+	 * @return ソース
+	 * @throws IOException ファイルを読み取れない場合
+	 * @throws IllegalArgumentException ファイルが2GB以上の場合
+	 */
+	static MappedSource map(Path path, boolean utf8) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("too large: "+size);
+			}
+			return new MappedSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), utf8, null);
+		}
+	}
+
+	@Override
+	public int length() {
+		return bytes.limit();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return pos < bytes.limit();
+	}
+
+	@Override
+	public char next() {
+		if(pos >= bytes.limit()) {
+			throw new NoSuchElementException();
+		}
+		int b = bytes.get(pos);
+		if(b >= 0 || !utf8) {
+			pos++;
+			return (char) (b & 0xFF);
+		}
+		return nextMultiByte(b & 0xFF);
+	}
+
+	@Override
+	public int peek() {
+		if(pos >= bytes.limit()) {
+			return END;
+		}
+		int b = bytes.get(pos);
+		if(b >= 0 || !utf8) {
+			return b & 0xFF;
+		}
+		return Source.super.peek();
+	}
+
+	@Override
+	public boolean regionMatches(String str) {
+		int n = str.length();
+		if(bytes.limit() - pos < n) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			char c = str.charAt(i);
+			if(utf8 && c >= 0x80) {
+				// ASCIIでない文字は変換して比較する
+				int start = pos;
+				pos += i;
+				if(Source.super.regionMatches(str.substring(i))) {
+					return true;
+				}
+				pos = start;
+				return false;
+			}
+			if((bytes.get(pos + i) & 0xFF) != c) {
+				return false;
+			}
+		}
+		pos += n;
+		return true;
+	}
+
+	@Override
+	public int scanWhile(CharPredicate predicate) {
+		int start = pos;
+		int limit = bytes.limit();
+		while(pos < limit) {
+			int b = bytes.get(pos);
+			if(b < 0 && utf8) {
+				return pos - start + Source.super.scanWhile(predicate);
+			}
+			if(!predicate.test((char) (b & 0xFF))) {
+				break;
+			}
+			pos++;
+		}
+		return pos - start;
+	}
+
+	@Override
+	public int indexOf(char c) {
+		if(utf8 && c >= 0x80) {
+			return Source.super.indexOf(c);
+		}
+		for (int i = pos; i < bytes.limit(); i++) {
+			if((bytes.get(i) & 0xFF) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private char nextMultiByte(int lead) {
+		if(lead < 0xC0) {
+			// 補助文字の3バイト目なら下位サロゲート
+			int codePoint = codePointAt(pos - 2);
+			if(codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+				pos += 2;
+				return Character.lowSurrogate(codePoint);
+			}
+			pos++;
+			return REPLACEMENT;
+		}
+		int codePoint = codePointAt(pos);
+		if(codePoint < 0) {
+			pos++;
+			return REPLACEMENT;
+		}
+		if(codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			pos += 2;
+			return Character.highSurrogate(codePoint);
+		}
+		pos += lead < 0xE0 ? 2 : 3;
+		return (char) codePoint;
+	}
+
+	/**
+	 * 指定した位置から始まるUTF-8の文字を変換する
+	 * @return 符号位置，不正な場合は-1
+	 */
+	private int codePointAt(int index) {
+		if(index < 0) {
+			return -1;
+		}
+		int lead = bytes.get(index) & 0xFF;
+		int length;
+		int codePoint;
+		if(0xC2 <= lead && lead < 0xE0) {
+			length = 2;
+			codePoint = lead & 0x1F;
+		} else if(0xE0 <= lead && lead < 0xF0) {
+			length = 3;
+			codePoint = lead & 0x0F;
+		} else if(0xF0 <= lead && lead < 0xF5) {
+			length = 4;
+			codePoint = lead & 0x07;
+		} else {
+			return -1;
+		}
+		if(index + length > bytes.limit()) {
+			return -1;
+		}
+		for (int i = 1; i < length; i++) {
+			int b = bytes.get(index + i) & 0xFF;
+			if((b & 0xC0) != 0x80) {
+				return -1;
+			}
+			codePoint = codePoint << 6 | b & 0x3F;
+		}
+		return codePoint;
+	}
+
+	@Override
+	public int index() {
+		return pos;
+	}
+
+	@Override
+	public int lineNum() {
+		return lines.lineNum(pos);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * UTF-8では行頭からのバイト数に1を加えた値を返す．
+	 */
+	@Override
+	public int columnNum() {
+		return lines.columnNum(pos);
+	}
+
+	/**
+	 * 各バイトを1文字とみなした文字列．UTF-8の複数バイトの文字にCRやLFのバイトは現れない
+	 */
+	private static final class ByteChars implements CharSequence {
+		private final ByteBuffer bytes;
+
+		ByteChars(ByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int length() {
+			return bytes.limit();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (bytes.get(index) & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new ByteChars(bytes.slice(start, end - start));
+		}
+
+		@Override
+		public String toString() {
+			byte[] result = new byte[bytes.limit()];
+			bytes.get(0, result);
+			return new String(result, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	@Override
+	public void jump(int index) {
+		if(index < 0 || bytes.limit() < index) {
+			throw new IndexOutOfBoundsException("index: "+index+", length: "+bytes.limit());
+		}
+		pos = index;
+	}
+
+	@Override
+	public String makeString(int from, int to) {
+		if(!utf8) {
+			return new String(slice(from, to), StandardCharsets.ISO_8859_1);
+		}
+
+		// 補助文字の途中で始まる，または終わる区間はサロゲートを補う
+		StringBuilder sb = new StringBuilder(to - from);
+		if(from < to && isInsideSupplementary(from)) {
+			sb.append(Character.lowSurrogate(codePointAt(from - 2)));
+			from += 2;
+		}
+		String tail = "";
+		if(from < to && isInsideSupplementary(to)) {
+			tail = String.valueOf(Character.highSurrogate(codePointAt(to - 2)));
+			to -= 2;
+		}
+		sb.append(new String(slice(from, to), StandardCharsets.UTF_8));
+		return sb.append(tail).toString();
+	}
+
+	private boolean isInsideSupplementary(int index) {
+		return utf8
+				&& index < bytes.limit()
+				&& (bytes.get(index) & 0xC0) == 0x80
+				&& codePointAt(index - 2) >= Character.MIN_SUPPLEMENTARY_CODE_POINT;
+	}
+
+	private byte[] slice(int from, int to) {
+		byte[] result = new byte[to - from];
+		bytes.get(from, result);
+		return result;
+	}
+
+	@Override
+	public Source duplicate() {
+		MappedSource duplicate = new MappedSource(bytes, utf8, lines);
+		duplicate.pos = pos;
+		return duplicate;
+	}
+}
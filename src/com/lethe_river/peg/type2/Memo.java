@@ -1,5 +1,8 @@
 package com.lethe_river.peg.type2;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.lethe_river.util.primitive.collection.LongIntMap;
 import com.lethe_river.util.primitive.collection.ScatterLongIntMap;
 
@@ -13,6 +16,11 @@ interface Memo {
 	public static final int ERROR = -1;
 	public static final int NULL  = -2;
 
+	/**
+	 * 結果オブジェクトが記録されていないことを表す値
+	 */
+	public static final Object NO_VALUE = new Object();
+
 	/**
 	 * パース終了位置を記録する
 	 * @param rule 規則
@@ -35,8 +43,96 @@ interface Memo {
 	 */
 	public int getEnd(Rule rule, int start);
 
+	/**
+	 * 終了位置を記録した規則の結果オブジェクトを記録する.
+	 * 同じ規則を共有するパーサが異なる結果オブジェクトを生成しうるため，生成したパーサとともに記録する．
+	 * 記録しないメモは何もしなくてよい．
+	 * @param rule 規則
+	 * @param start 開始インデックス
+	 * @param parser 結果オブジェクトを生成したパーサ
+	 * @param value 結果オブジェクト
+	 */
+	public default void putValue(Rule rule, int start, Parser<?> parser, Object value) {
+		// do nothing
+	}
+
+	/**
+	 * 記録した結果オブジェクトを取得する
+	 * @param rule 規則
+	 * @param start 開始インデックス
+	 * @param parser 結果オブジェクトを生成するパーサ
+	 * @return 同じパーサが生成した結果オブジェクト，記録されていなければNO_VALUE
+	 */
+	public default Object getValue(Rule rule, int start, Parser<?> parser) {
+		return NO_VALUE;
+	}
+
+	/**
+	 * 規則の結果を記録するかどうかを返す.
+	 * 記録しない規則に対してはgetEndは常にNULLを返す．
+	 * @param rule 規則
+	 * @return 記録するならtrue
+	 */
+	public default boolean isMemoized(Rule rule) {
+		return true;
+	}
+
+	/**
+	 * 指定した位置より前に戻らないことを記録する.
+	 * 指定した位置より前から始まる結果の記録は捨ててよい．
+	 * @param pos 位置
+	 */
+	public void cut(int pos);
+
+	/**
+	 * 記録された最も後ろの切断位置を返す
+	 * @return 切断位置，切断していなければ0
+	 */
+	public int cutPosition();
+
+	/**
+	 * このメモを利用する解析で失敗した終端記号の記録を返す
+	 * @return 記録
+	 */
+	public Failures failures();
+
+	/**
+	 * 記録の大きさを返す.
+	 * 記録の数，または記録のために確保した領域の要素数で，メモの種類ごとに安価に求められる値とする．
+	 * @return 大きさ，記録しないメモは0
+	 */
+	public default int size() {
+		return 0;
+	}
+
+	/**
+	 * 規則の左再帰の役割や選択の表を引く文法を返す.
+	 * 文法を持たないメモでは，規則は書かれたとおりに全ての選択肢を試して評価する．
+	 * @return 文法，なければnull
+	 */
+	public default Grammar grammar() {
+		return null;
+	}
+
 	public static Memo noMemo() {
+		return noMemo(null);
+	}
+
+	/**
+	 * 何も記録せず，規則の評価に文法を利用するメモを生成する
+	 * @param grammar 文法，またはnull
+	 * @return メモ
+	 */
+	public static Memo noMemo(Grammar grammar) {
 		return new Memo() {
+			int cutPosition = 0;
+			final Failures failures = new Failures();
+
+			@Override
+			public Grammar grammar() {
+				return grammar;
+			}
+
 			@Override
 			public void putError(Rule rule, int start) {
 				// do nothing
@@ -51,13 +147,59 @@ interface Memo {
 			public int getEnd(Rule rule, int start) {
 				return NULL;
 			}
+
+			@Override
+			public boolean isMemoized(Rule rule) {
+				return false;
+			}
+
+			@Override
+			public void cut(int pos) {
+				cutPosition = Math.max(cutPosition, pos);
+			}
+
+			@Override
+			public int cutPosition() {
+				return cutPosition;
+			}
+
+			@Override
+			public Failures failures() {
+				return failures;
+			}
 		};
 	}
 
 	public static Memo fullMemo() {
+		return fullMemo(null);
+	}
+
+	/**
+	 * 全ての規則の結果を記録し，規則の評価に文法を利用するメモを生成する
+	 * @param grammar 文法，またはnull
+	 * @return メモ
+	 */
+	public static Memo fullMemo(Grammar grammar) {
 		return new Memo() {
 			LongIntMap map = new ScatterLongIntMap();
 
+			/**
+			 * 結果オブジェクトを記録した，valuesの中の位置
+			 */
+			LongIntMap slots = new ScatterLongIntMap();
+
+			/**
+			 * 生成したパーサと結果オブジェクトを交互に並べた記録
+			 */
+			List<Object> values = new ArrayList<>();
+			int cutPosition = 0;
+			final Failures failures = new Failures();
+
+			@Override
+			public Grammar grammar() {
+				return grammar;
+			}
+
 			@Override
 			public void putError(Rule rule, int start) {
 				map.put(((long)rule.id()) << 32 | start, ERROR);
@@ -72,6 +214,69 @@ interface Memo {
 			public int getEnd(Rule rule, int start) {
 				return map.getOrDefault(((long)rule.id()) << 32 | start, NULL);
 			}
+
+			@Override
+			public void putValue(Rule rule, int start, Parser<?> parser, Object value) {
+				long key = ((long)rule.id()) << 32 | start;
+				int slot = slots.getOrDefault(key, -1);
+				if(slot < 0) {
+					slots.put(key, values.size());
+					values.add(parser);
+					values.add(value);
+				} else {
+					values.set(slot, parser);
+					values.set(slot + 1, value);
+				}
+			}
+
+			@Override
+			public Object getValue(Rule rule, int start, Parser<?> parser) {
+				int slot = slots.getOrDefault(((long)rule.id()) << 32 | start, -1);
+				if(slot < 0 || values.get(slot) != parser) {
+					return NO_VALUE;
+				}
+				return values.get(slot + 1);
+			}
+
+			@Override
+			public int size() {
+				return map.size();
+			}
+
+			@Override
+			public void cut(int pos) {
+				// 位置による削除はできないので記録は保持する
+				cutPosition = Math.max(cutPosition, pos);
+			}
+
+			@Override
+			public int cutPosition() {
+				return cutPosition;
+			}
+
+			@Override
+			public Failures failures() {
+				return failures;
+			}
 		};
 	}
+
+	/**
+	 * 文法内の規則番号と位置で直接索引付けたメモを生成する.
+	 * 文法に含まれない規則の結果は記録しない．
+	 * @param grammar 文法
+	 * @return メモ
+	 */
+	public static Memo denseMemo(Grammar grammar) {
+		return new DenseMemo(MemoPolicy.all(grammar));
+	}
+
+	/**
+	 * 方針に従って記録する，文法内の規則番号と位置で直接索引付けたメモを生成する.
+	 * @param policy 方針
+	 * @return メモ
+	 */
+	public static Memo denseMemo(MemoPolicy policy) {
+		return new DenseMemo(policy);
+	}
 }
@@ -0,0 +1,180 @@
+package com.lethe_river.peg.type2;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.lethe_river.peg.type2.Rule.Kind;
+
+/**
+ * 文法のどの規則の結果をメモに記録するかを表すクラス．
+ *
+ * {@link #analyze(Grammar)}は同じ位置で2回以上呼出されうる規則のみを記録する．
+ * 記録しない規則は呼出し元の規則と同じ回数しか呼出されないため，
+ * 受理判定にかかる時間は入力の長さに対して線形のまま保たれる．
+ * ただし{@link Parser#parse(Source, Memo)}は受理判定の後で同じ位置の規則を呼出し直すため，
+ * 解析の結果はその再呼出しを考慮しない．
+ *
+ * @author YuyaAizawa
+ */
+public final class MemoPolicy {
+	private final Grammar grammar;
+
+	/**
+	 * 番号で索引付けた，結果を記録するかどうか
+	 */
+	private final boolean[] memoized;
+
+	private MemoPolicy(Grammar grammar, boolean[] memoized) {
+		this.grammar = grammar;
+		this.memoized = memoized;
+	}
+
+	/**
+	 * 全ての規則の結果を記録する方針を生成する
+	 * @param grammar 文法
+	 * @return 方針
+	 */
+	public static MemoPolicy all(Grammar grammar) {
+		boolean[] memoized = new boolean[grammar.size()];
+		Arrays.fill(memoized, true);
+		return new MemoPolicy(grammar, memoized);
+	}
+
+	/**
+	 * 文法を解析して，バックトラックにより同じ位置で2回以上呼出されうる規則のみを記録する方針を生成する.
+	 *
+	 * 次の規則は記録しない．
+	 * - 終端記号，および終端記号に対する省略可能と先読み
+	 * - 開始規則でなく，1箇所からしか参照されない規則
+	 * - 連接の中で複数回参照されていても，参照の間に必ず1文字以上読み取る規則がある規則
+	 * - 種を成長させない左再帰の規則
+	 * 種を成長させる左再帰の規則は常に記録する．
+	 *
+	 * @param grammar 文法
+	 * @return 方針
+	 */
+	public static MemoPolicy analyze(Grammar grammar) {
+		int[] references = new int[grammar.size()];
+		references[grammar.indexOf(grammar.start())]++;
+
+		for (int i = 0; i < grammar.size(); i++) {
+			Rule rule = grammar.rule(i);
+			List<Rule> rules = rule.rules();
+			if(rule.kind() == Kind.SEQUENCE) {
+				countSequenceReferences(grammar, rules, references);
+			} else {
+				for(Rule r : rules) {
+					references[grammar.indexOf(r)]++;
+				}
+			}
+		}
+
+		boolean[] memoized = new boolean[grammar.size()];
+		for (int i = 0; i < memoized.length; i++) {
+			Rule rule = grammar.rule(i);
+			switch(grammar.leftRecursion(rule)) {
+			case Grammar.LEFT_RECURSION_HEAD:
+				memoized[i] = true;
+				break;
+			case Grammar.LEFT_RECURSION_INVOLVED:
+				memoized[i] = false;
+				break;
+			default:
+				memoized[i] = references[i] >= 2 && !isCheap(rule);
+			}
+		}
+		return new MemoPolicy(grammar, memoized);
+	}
+
+	/**
+	 * 連接の中での参照を数える．
+	 * 同じ規則の参照の間に何も読み取らずに成功しえない規則があれば，
+	 * 2つの参照は同じ位置で呼出されないため1つと数える．
+	 */
+	private static void countSequenceReferences(Grammar grammar, List<Rule> rules, int[] references) {
+		for (int i = 0; i < rules.size(); i++) {
+			Rule rule = rules.get(i);
+			int last = rules.subList(0, i).lastIndexOf(rule);
+			if(last < 0 || rules.subList(last, i).stream().allMatch(grammar::isNullable)) {
+				references[grammar.indexOf(rule)]++;
+			}
+		}
+	}
+
+	/**
+	 * 記録するより呼出し直す方が安い規則かどうか
+	 */
+	private static boolean isCheap(Rule rule) {
+		switch(rule.kind()) {
+		case TERM:
+		case CUT:
+			return true;
+		case OPTION:
+		case AND_PREDICATE:
+		case NOT_PREDICATE:
+			return rule.rules().get(0).kind() == Kind.TERM;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * 対象の文法を返す
+	 * @return 文法
+	 */
+	public Grammar grammar() {
+		return grammar;
+	}
+
+	/**
+	 * 規則の結果を記録するかどうかを返す
+	 * @param rule 規則
+	 * @return 記録するならtrue，文法に含まれない規則ならfalse
+	 */
+	public boolean isMemoized(Rule rule) {
+		int index = grammar.indexOf(rule);
+		return index >= 0 && memoized[index];
+	}
+
+	/**
+	 * 指定した規則についてのみ記録するかどうかを変更した方針を返す
+	 * @param rule 規則
+	 * @param memoize 記録するならtrue
+	 * @return 新しい方針
+	 * @throws IllegalArgumentException 規則が文法に含まれない場合，または種を成長させる左再帰の規則を記録しない場合
+	 */
+	public MemoPolicy with(Rule rule, boolean memoize) {
+		int index = grammar.indexOf(rule);
+		if(index < 0 || !memoize && grammar.leftRecursion(rule) == Grammar.LEFT_RECURSION_HEAD) {
+			throw new IllegalArgumentException();
+		}
+		boolean[] memoized = this.memoized.clone();
+		memoized[index] = memoize;
+		return new MemoPolicy(grammar, memoized);
+	}
+
+	/**
+	 * 指定したパーサの規則についてのみ記録するかどうかを変更した方針を返す
+	 * @param parser パーサ
+	 * @param memoize 記録するならtrue
+	 * @return 新しい方針
+	 * @throws IllegalArgumentException 規則が文法に含まれない場合，または種を成長させる左再帰の規則を記録しない場合
+	 */
+	public MemoPolicy with(Parser<?> parser, boolean memoize) {
+		return with(parser.getRule(), memoize);
+	}
+
+	/**
+	 * 結果を記録する規則の数を返す
+	 * @return 規則の数
+	 */
+	public int memoizedCount() {
+		int count = 0;
+		for(boolean m : memoized) {
+			if(m) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
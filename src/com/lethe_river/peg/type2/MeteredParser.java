@@ -0,0 +1,59 @@
+package com.lethe_river.peg.type2;
+
+/**
+ * 読み取りごとに計測器を更新するパーサ.
+ *
+ * 受理判定と結果の生成を行う読み取りの1回を計測する．他のパーサに合成した場合は，部分として読み取るたびに計測する．
+ *
+ * @author YuyaAizawa
+ *
+ * @param <T> 解析結果オブジェクトの型
+ * @see Parser#withMetrics(ParserMetrics)
+ */
+final class MeteredParser<T> extends Parser<T> {
+	private final Parser<T> parser;
+	private final ParserMetrics metrics;
+
+	MeteredParser(Parser<T> parser, ParserMetrics metrics) {
+		super(parser.getRule());
+		this.parser = parser;
+		this.metrics = metrics;
+	}
+
+	@Override
+	Memo newMemo() {
+		return parser.newMemo();
+	}
+
+	@Override
+	Grammar grammar() {
+		return parser.grammar();
+	}
+
+	/**
+	 * 包んだパーサを不変にし，同じ計測器を取り付ける
+	 */
+	@Override
+	public Parser<T> freeze() {
+		return new MeteredParser<>(parser.freeze(), metrics);
+	}
+
+	@Override
+	Object parseOrFailure(Source src, Memo memo) {
+		int start = src.index();
+		long begin = System.nanoTime();
+		Object result = parser.parseOrFailure(src, memo);
+		metrics.record(System.nanoTime() - begin, src.index() - start, result != FAILURE, memo.size());
+		return result;
+	}
+
+	@Override
+	protected T eval(Source src, Memo memo) {
+		return parser.eval(src, memo);
+	}
+
+	@Override
+	Object apply(Source src, Memo memo) {
+		return parser.apply(src, memo);
+	}
+}
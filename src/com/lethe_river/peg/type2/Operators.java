@@ -0,0 +1,288 @@
+package com.lethe_river.peg.type2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * 演算子の優先順位表から式のパーサを生成するビルダ.
+ *
+ * 生成されるパーサは優先順位ごとの規則を持たず，1つのループで優先順位を比較しながら演算子を結合する．
+ * このため被演算子1つあたりの規則の呼出しとメモの記録は，優先順位の段数によらず1回で済む．
+ * 優先順位は大きいほど強く結合する．
+ * 受理判定は次の文法で行い，結果オブジェクトを生成するときのみ優先順位を考慮する．
+ * <pre>
+ * unit ::= prefix* operand postfix*
+ * expr ::= unit (infix unit)*
+ * </pre>
+ * 同じ位置で複数の演算子が受理される場合は先に登録した演算子を用いる．
+ *
+ * @author YuyaAizawa
+ *
+ * @param <T> 結果オブジェクトの型
+ * @see Parser#operators(Parser)
+ */
+public final class Operators<T> {
+
+	private final Parser<T> operand;
+	private final List<Operator<T>> prefixes = new ArrayList<>();
+	private final List<Operator<T>> infixes = new ArrayList<>();
+	private final List<Operator<T>> postfixes = new ArrayList<>();
+
+	Operators(Parser<T> operand) {
+		this.operand = operand;
+	}
+
+	/**
+	 * 前置演算子を追加する．前置演算子はそれより優先順位の高い演算子を含む式に適用される
+	 * @param operator 演算子
+	 * @param precedence 優先順位
+	 * @param function 演算
+	 * @return このビルダ
+	 */
+	public Operators<T> prefix(VoidParser operator, int precedence, UnaryOperator<T> function) {
+		prefixes.add(new Operator<>(operator, precedence, false, function, null));
+		return this;
+	}
+
+	public Operators<T> prefix(String operator, int precedence, UnaryOperator<T> function) {
+		return prefix(Parser.of(operator), precedence, function);
+	}
+
+	/**
+	 * 左結合の中置演算子を追加する
+	 * @param operator 演算子
+	 * @param precedence 優先順位
+	 * @param function 演算
+	 * @return このビルダ
+	 */
+	public Operators<T> infixLeft(VoidParser operator, int precedence, BinaryOperator<T> function) {
+		infixes.add(new Operator<>(operator, precedence, false, null, function));
+		return this;
+	}
+
+	public Operators<T> infixLeft(String operator, int precedence, BinaryOperator<T> function) {
+		return infixLeft(Parser.of(operator), precedence, function);
+	}
+
+	/**
+	 * 右結合の中置演算子を追加する
+	 * @param operator 演算子
+	 * @param precedence 優先順位
+	 * @param function 演算
+	 * @return このビルダ
+	 */
+	public Operators<T> infixRight(VoidParser operator, int precedence, BinaryOperator<T> function) {
+		infixes.add(new Operator<>(operator, precedence, true, null, function));
+		return this;
+	}
+
+	public Operators<T> infixRight(String operator, int precedence, BinaryOperator<T> function) {
+		return infixRight(Parser.of(operator), precedence, function);
+	}
+
+	/**
+	 * 後置演算子を追加する
+	 * @param operator 演算子
+	 * @param precedence 優先順位
+	 * @param function 演算
+	 * @return このビルダ
+	 */
+	public Operators<T> postfix(VoidParser operator, int precedence, UnaryOperator<T> function) {
+		postfixes.add(new Operator<>(operator, precedence, false, function, null));
+		return this;
+	}
+
+	public Operators<T> postfix(String operator, int precedence, UnaryOperator<T> function) {
+		return postfix(Parser.of(operator), precedence, function);
+	}
+
+	/**
+	 * 登録した演算子で式を読み取るパーサを生成する．生成後に追加した演算子は反映されない
+	 * @return パーサ
+	 */
+	public Parser<T> build() {
+		return new OperatorParser<>(operand, new Table<>(prefixes), new Table<>(infixes), new Table<>(postfixes));
+	}
+
+	private static final class Operator<T> {
+		final Rule rule;
+		final int precedence;
+		final boolean rightAssociative;
+		final UnaryOperator<T> unary;
+		final BinaryOperator<T> binary;
+
+		Operator(VoidParser parser, int precedence, boolean rightAssociative,
+				UnaryOperator<T> unary, BinaryOperator<T> binary) {
+			this.rule = parser.getRule();
+			this.precedence = precedence;
+			this.rightAssociative = rightAssociative;
+			this.unary = unary;
+			this.binary = binary;
+		}
+	}
+
+	/**
+	 * 同じ種類の演算子の表．先に登録した演算子から順に試す
+	 */
+	private static final class Table<T> {
+		final List<Operator<T>> operators;
+
+		/**
+		 * 演算子の規則の選択．空の表ではnull
+		 */
+		final Rule.Choice choice;
+
+		Table(List<Operator<T>> operators) {
+			this.operators = List.copyOf(operators);
+			this.choice = operators.isEmpty() ? null : new Rule.Choice(this.operators.stream()
+					.map(o -> (Supplier<Rule>) () -> o.rule)
+					.collect(Collectors.toList()));
+		}
+
+		/**
+		 * 読み取り位置で受理される演算子を読み取る
+		 * @return 演算子，なければnullで読み取り位置は変えない
+		 */
+		Operator<T> match(Source src, Memo memo) {
+			if(choice == null) {
+				return null;
+			}
+			int start = src.index();
+			int[] candidates = choice.candidates(src, memo);
+			int count = candidates == null ? operators.size() : candidates.length;
+			for (int i = 0; i < count; i++) {
+				Operator<T> operator = operators.get(candidates == null ? i : candidates[i]);
+				if(operator.rule.parse(src, memo)) {
+					return operator;
+				}
+				src.jump(start);
+			}
+			if(candidates != null) {
+				choice.failSkipped(start, candidates, memo);
+			}
+			return null;
+		}
+	}
+
+	private static final class OperatorParser<T> extends Parser<T> {
+		private final Parser<T> operand;
+		private final Table<T> prefixes;
+		private final Table<T> infixes;
+		private final Table<T> postfixes;
+
+		OperatorParser(Parser<T> operand, Table<T> prefixes, Table<T> infixes, Table<T> postfixes) {
+			super(rule(operand, prefixes, infixes, postfixes));
+			this.operand = operand;
+			this.prefixes = prefixes;
+			this.infixes = infixes;
+			this.postfixes = postfixes;
+		}
+
+		/**
+		 * 受理判定の規則を生成する．演算子の選択は表と共有し，文法が設定する表を照合に用いる
+		 */
+		private static <T> Rule rule(Parser<T> operand, Table<T> prefixes, Table<T> infixes, Table<T> postfixes) {
+			List<Rule> unit = new ArrayList<>();
+			if(prefixes.choice != null) {
+				unit.add(new Rule.Star(prefixes.choice));
+			}
+			unit.add(operand.getRule());
+			if(postfixes.choice != null) {
+				unit.add(new Rule.Star(postfixes.choice));
+			}
+			Rule unitRule = unit.size() == 1 ? unit.get(0)
+					: new Rule.Sequence(unit.get(0), unit.subList(1, unit.size()).toArray(new Rule[0]));
+			if(infixes.choice == null) {
+				return unitRule;
+			}
+			return new Rule.Sequence(unitRule, new Rule.Star(new Rule.Sequence(infixes.choice, unitRule)));
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		protected T eval(Source src, Memo memo) {
+			Object result = climb(src, memo, Integer.MIN_VALUE, false);
+			if(result == FAILURE) {
+				// 到達しないはず，Rule#parseが偽を返しているはず
+				throw new Error();
+			}
+			return (T) result;
+		}
+
+		@Override
+		Object apply(Source src, Memo memo) {
+			return climb(src, memo, Integer.MIN_VALUE, true);
+		}
+
+		/**
+		 * 優先順位がminPrecedence以上の演算子のみを結合して式を読み取る
+		 * @param fused 被演算子の結果をapplyで生成するならtrue
+		 * @return 結果オブジェクト，またはFAILURE
+		 */
+		@SuppressWarnings("unchecked")
+		private Object climb(Source src, Memo memo, int minPrecedence, boolean fused) {
+			Object left;
+			Operator<T> prefix = prefixes.match(src, memo);
+			if(prefix != null) {
+				left = climb(src, memo, prefix.precedence, fused);
+				if(left == FAILURE) {
+					return FAILURE;
+				}
+				left = prefix.unary.apply((T) left);
+			} else {
+				left = fused ? operand.applyMemo(src, memo) : evalOperand(src, memo);
+				if(left == FAILURE) {
+					return FAILURE;
+				}
+			}
+
+			while(true) {
+				int pos = src.index();
+				Operator<T> postfix = postfixes.match(src, memo);
+				if(postfix != null) {
+					if(postfix.precedence < minPrecedence) {
+						src.jump(pos);
+						return left;
+					}
+					left = postfix.unary.apply((T) left);
+					continue;
+				}
+				Operator<T> infix = infixes.match(src, memo);
+				if(infix == null) {
+					return left;
+				}
+				if(infix.precedence < minPrecedence) {
+					src.jump(pos);
+					return left;
+				}
+				int next = infix.rightAssociative || infix.precedence == Integer.MAX_VALUE
+						? infix.precedence : infix.precedence + 1;
+				Object right = climb(src, memo, next, fused);
+				if(right == FAILURE) {
+					if(pos < memo.cutPosition()) {
+						return FAILURE;
+					}
+					src.jump(pos);
+					return left;
+				}
+				left = infix.binary.apply((T) left, (T) right);
+			}
+		}
+
+		private Object evalOperand(Source src, Memo memo) {
+			int start = src.index();
+			if(!operand.getRule().parse(src, memo)) {
+				return FAILURE;
+			}
+			int end = src.index();
+			src.jump(start);
+			T t = operand.eval(src, memo);
+			src.jump(end);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package com.lethe_river.peg.type2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 独立した記録の繰り返しを，入力を分割して並列に読み取るパーサ.
+ *
+ * 入力を等分した位置から区切りの規則が受理される位置を探し，その直後で分割する．
+ * 分割した区間はそれぞれのメモで並列に読み取り，順に連結する．
+ * 推測した区切りが記録の途中だった場合，その区間は捨てて前の区間の終わりから逐次的に読み取り，
+ * 正しい区間の開始位置に追いついたところで並列の結果の利用に戻る．
+ * 複製できないソースは分割せず，逐次的に読み取る．
+ *
+ * @author YuyaAizawa
+ *
+ * @param <T> 記録の型
+ */
+final class ParallelRecordParser<T> {
+	/**
+	 * これより短い区間には分割しない
+	 */
+	private static final int MIN_CHUNK_LENGTH = 1 << 16;
+
+	/**
+	 * 作業者1つあたりの区間の数
+	 */
+	private static final int CHUNKS_PER_WORKER = 4;
+
+	private final Parser<T> record;
+	private final Parser<?> boundary;
+
+	ParallelRecordParser(Parser<T> record, Parser<?> boundary) {
+		this.record = record;
+		this.boundary = boundary;
+	}
+
+	List<T> parse(Source src) {
+		if(!isDuplicable(src)) {
+			return stitch(src, List.of());
+		}
+		int length = src.length();
+
+		int chunkCount = Math.min(
+				ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_WORKER,
+				length / MIN_CHUNK_LENGTH);
+		if(chunkCount < 2) {
+			return stitch(src, List.of());
+		}
+
+		int[] starts = IntStream.range(0, chunkCount + 1)
+				.parallel()
+				.map(k -> k == 0 ? 0 : k == chunkCount ? length
+						: findBoundary(src.duplicate(), (int)((long) length * k / chunkCount)))
+				.toArray();
+
+		List<Chunk<T>> chunks = IntStream.range(0, chunkCount)
+				.parallel()
+				.filter(k -> starts[k] < starts[k + 1])
+				.mapToObj(k -> parseChunk(src.duplicate(), starts[k], starts[k + 1]))
+				.collect(Collectors.toList());
+
+		return stitch(src, chunks);
+	}
+
+	private static boolean isDuplicable(Source src) {
+		try {
+			src.duplicate();
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 指定した位置以降で最初に区切りが受理される位置の直後を返す
+	 */
+	private int findBoundary(Source src, int from) {
+		Memo memo = Memo.noMemo(boundary.grammar());
+		for (int pos = from; pos < src.length(); pos++) {
+			src.jump(pos);
+			if(boundary.getRule().parse(src, memo)) {
+				return src.index();
+			}
+		}
+		return src.length();
+	}
+
+	/**
+	 * 区間の先頭から区間の終わりを超えるか失敗するまで記録を読み取る
+	 */
+	@SuppressWarnings("unchecked")
+	private Chunk<T> parseChunk(Source src, int start, int end) {
+		Memo memo = record.newMemo();
+		// 区間より前には戻らない
+		memo.cut(start);
+
+		List<T> records = new ArrayList<>();
+		src.jump(start);
+		int reached = start;
+		while(reached < end) {
+			Object t = record.parseOrFailure(src, memo);
+			if(t == Parser.FAILURE) {
+				break;
+			}
+			records.add((T) t);
+			if(src.index() == reached) {
+				break;
+			}
+			reached = src.index();
+		}
+		return new Chunk<>(start, end, reached, records);
+	}
+
+	/**
+	 * 開始位置の正しい区間の結果を連結し，それ以外の部分は逐次的に読み取る
+	 */
+	private List<T> stitch(Source src, List<Chunk<T>> chunks) {
+		List<T> result = new ArrayList<>();
+		Memo memo = record.newMemo();
+		int pos = 0;
+		int next = 0;
+		while(hasNext(src, pos)) {
+			while(next < chunks.size() && chunks.get(next).start < pos) {
+				next++;
+			}
+			if(next < chunks.size() && chunks.get(next).start == pos) {
+				Chunk<T> chunk = chunks.get(next++);
+				result.addAll(chunk.records);
+				pos = chunk.reached;
+				if(chunk.reached == chunk.end) {
+					continue;
+				}
+			}
+			if(!hasNext(src, pos)) {
+				break;
+			}
+
+			// 区間の結果が使えない位置は1つずつ読み取る
+			memo.cut(pos);
+			src.jump(pos);
+			result.add(record.parse(src, memo));
+			if(src.index() == pos) {
+				throw memo.failures().exception(pos);
+			}
+			pos = src.index();
+		}
+		return result;
+	}
+
+	/**
+	 * ストリームから読み込むソースの大きさは読み込み済みの分しかわからないため，読み取って確かめる
+	 */
+	private static boolean hasNext(Source src, int pos) {
+		src.jump(pos);
+		return src.hasNext();
+	}
+
+	private static final class Chunk<T> {
+		final int start;
+		final int end;
+
+		/**
+		 * 最後に読み取った記録の終了位置
+		 */
+		final int reached;
+		final List<T> records;
+
+		Chunk(int start, int end, int reached, List<T> records) {
+			this.start = start;
+			this.end = end;
+			this.reached = reached;
+			this.records = records;
+		}
+	}
+}
@@ -1,5 +1,55 @@
 package com.lethe_river.peg.type2;
 
+import java.util.List;
+
+/**
+ * 解析失敗を表す例外.
+ *
+ * 最も後ろで失敗した位置と，その位置で期待した終端記号を持つ．
+ * 説明の文字列はメッセージを取得するときに生成する．
+ * 解析失敗は入力の誤りであってプログラムの誤りではないため，スタックトレースを記録しない．
+ * 例外を生成せずに失敗を扱う場合は{@link Parser#tryParse(CharSequence)}を利用する．
+ *
+ * @author YuyaAizawa
+ */
 public class ParseException extends RuntimeException {
-	// 今のところ型のみ
+	private final int position;
+	private final Rule.RuleWithDescription[] expected;
+
+	public ParseException() {
+		this(-1, new Rule.RuleWithDescription[0]);
+	}
+
+	ParseException(int position, Rule.RuleWithDescription[] expected) {
+		super(null, null, false, false);
+		this.position = position;
+		this.expected = expected;
+	}
+
+	/**
+	 * 最も後ろで失敗した位置を返す
+	 * @return 位置，不明な場合は-1
+	 */
+	public int position() {
+		return position;
+	}
+
+	/**
+	 * 失敗した位置で期待した終端記号の説明を返す
+	 * @return 説明のリスト
+	 */
+	public List<String> expected() {
+		return Failures.descriptions(expected);
+	}
+
+	@Override
+	public String getMessage() {
+		if(position < 0) {
+			return null;
+		}
+		List<String> expected = expected();
+		return expected.isEmpty()
+				? "unexpected input at " + position
+				: "expected " + String.join(", ", expected) + " at " + position;
+	}
 }
@@ -0,0 +1,406 @@
+package com.lethe_river.peg.type2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import com.lethe_river.util.primitive.function.CharPredicate;
+
+/**
+ * 規則ごとの解析の費用を測る.
+ *
+ * メモとソースを包み，メモの問合せと記録，ソースの後戻りを規則ごとに数える．
+ * 数えるのはこのクラスで読み取った場合のみで，通常の読み取りには何も加えない．
+ * メモを問い合わせない規則(左再帰に関わる規則や，記録しないと決めてコンパイルした規則)は数えない．
+ * 結果は読み取りをまたいで積算する．複数のスレッドから同時に利用することはできない．
+ *
+ * @author YuyaAizawa
+ */
+public final class ParseProfiler {
+
+	/**
+	 * 並べ替えに用いる費用
+	 */
+	public static enum Cost {
+		/** 呼出し回数 */
+		INVOCATIONS(RuleProfile::invocations),
+		/** メモに結果がなく評価した回数 */
+		MISSES(RuleProfile::misses),
+		/** 失敗した回数 */
+		FAILURES(RuleProfile::failures),
+		/** 評価中に読み取り位置を前に戻した回数 */
+		BACKTRACKS(RuleProfile::backtracks),
+		/** 成功した評価で読み取った文字数の合計 */
+		CONSUMED(RuleProfile::consumed),
+		/** 評価の所要時間の合計．内部の規則の評価を含む */
+		TIME(RuleProfile::nanos);
+
+		private final ToLongFunction<RuleProfile> value;
+
+		private Cost(ToLongFunction<RuleProfile> value) {
+			this.value = value;
+		}
+	}
+
+	private final RuleAnalyzer analyzer;
+	private final Map<Rule, RuleProfile> profiles = new HashMap<>();
+
+	/**
+	 * 規則を番号と説明で表示する測定器を生成する
+	 */
+	public ParseProfiler() {
+		this(new RuleAnalyzer());
+	}
+
+	/**
+	 * 規則を解析器で付けた名前で表示する測定器を生成する
+	 * @param analyzer 名前を付けた解析器
+	 */
+	public ParseProfiler(RuleAnalyzer analyzer) {
+		this.analyzer = analyzer;
+	}
+
+	/**
+	 * 費用を測りながら文字列からオブジェクトを読み取る
+	 * @param parser パーサ
+	 * @param src 文字列
+	 * @return 結果オブジェクト
+	 * @throws ParseException 解析失敗の場合
+	 */
+	public <T> T parse(Parser<T> parser, CharSequence src) {
+		ProfilingMemo memo = new ProfilingMemo(parser.newMemo());
+		return parser.parse(new ProfilingSource(Source.from(src), memo), memo);
+	}
+
+	/**
+	 * 費用を測りながら規則で文字列を受理判定する
+	 * @param rule 規則
+	 * @param src 文字列
+	 * @return 文字列の先頭から受理すればtrue
+	 * @throws IllegalArgumentException 文法が不正な場合
+	 */
+	public boolean parse(Rule rule, CharSequence src) {
+		ProfilingMemo memo = new ProfilingMemo(Memo.fullMemo(Grammar.of(rule)));
+		return rule.parse(new ProfilingSource(Source.from(src), memo), memo);
+	}
+
+	/**
+	 * 規則ごとの費用を大きい順に返す
+	 * @param cost 並べ替えに用いる費用
+	 * @return 費用のリスト
+	 */
+	public List<RuleProfile> profiles(Cost cost) {
+		List<RuleProfile> result = new ArrayList<>(profiles.values());
+		result.sort(Comparator.comparingLong(cost.value).reversed());
+		return result;
+	}
+
+	/**
+	 * 規則ごとの費用を大きい順に表にする
+	 * @param cost 並べ替えに用いる費用
+	 * @return 表
+	 */
+	public String report(Cost cost) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-32s %10s %10s %10s %10s %10s %12s %10s%n",
+				"rule", "calls", "hits", "misses", "failures", "backtracks", "consumed", "time(ms)"));
+		for(RuleProfile profile : profiles(cost)) {
+			sb.append(String.format("%-32s %10d %10d %10d %10d %10d %12d %10.3f%n",
+					profile.name(),
+					profile.invocations(),
+					profile.hits(),
+					profile.misses(),
+					profile.failures(),
+					profile.backtracks(),
+					profile.consumed(),
+					profile.nanos() / 1e6));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 積算した費用を捨てる
+	 */
+	public void reset() {
+		profiles.clear();
+	}
+
+	private RuleProfile profile(Rule rule) {
+		RuleProfile profile = profiles.get(rule);
+		if(profile == null) {
+			profile = new RuleProfile(analyzer.nameOf(rule));
+			profiles.put(rule, profile);
+		}
+		return profile;
+	}
+
+	/**
+	 * 1つの規則の費用
+	 */
+	public static final class RuleProfile {
+		private final String name;
+		long hits;
+		long misses;
+		long failures;
+		long backtracks;
+		long consumed;
+		long nanos;
+
+		RuleProfile(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * 解析器で付けた名前，または右辺と同じ表記を返す
+		 */
+		public String name() {
+			return name;
+		}
+
+		public long invocations() {
+			return hits + misses;
+		}
+
+		public long hits() {
+			return hits;
+		}
+
+		public long misses() {
+			return misses;
+		}
+
+		public long failures() {
+			return failures;
+		}
+
+		public long backtracks() {
+			return backtracks;
+		}
+
+		public long consumed() {
+			return consumed;
+		}
+
+		public long nanos() {
+			return nanos;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": calls=" + invocations() + ", hits=" + hits + ", misses=" + misses
+					+ ", failures=" + failures + ", backtracks=" + backtracks
+					+ ", consumed=" + consumed + ", nanos=" + nanos;
+		}
+	}
+
+	/**
+	 * 問合せと記録を数えるメモ．評価中の規則のスタックを持つ
+	 */
+	private final class ProfilingMemo implements Memo {
+		private final Memo memo;
+
+		private RuleProfile[] frameProfiles = new RuleProfile[16];
+		private Rule[] frameRules = new Rule[16];
+		private int[] frameStarts = new int[16];
+		private long[] frameTimes = new long[16];
+		private int depth = 0;
+
+		ProfilingMemo(Memo memo) {
+			this.memo = memo;
+		}
+
+		@Override
+		public int getEnd(Rule rule, int start) {
+			int r = memo.getEnd(rule, start);
+			RuleProfile profile = profile(rule);
+			if(r != NULL) {
+				profile.hits++;
+				return r;
+			}
+			profile.misses++;
+			if(depth == frameRules.length) {
+				frameProfiles = Arrays.copyOf(frameProfiles, depth * 2);
+				frameRules = Arrays.copyOf(frameRules, depth * 2);
+				frameStarts = Arrays.copyOf(frameStarts, depth * 2);
+				frameTimes = Arrays.copyOf(frameTimes, depth * 2);
+			}
+			frameProfiles[depth] = profile;
+			frameRules[depth] = rule;
+			frameStarts[depth] = start;
+			frameTimes[depth] = System.nanoTime();
+			depth++;
+			return r;
+		}
+
+		@Override
+		public void putEnd(Rule rule, int start, int end) {
+			RuleProfile profile = pop(rule, start);
+			if(profile != null) {
+				profile.consumed += end - start;
+			}
+			memo.putEnd(rule, start, end);
+		}
+
+		@Override
+		public void putError(Rule rule, int start) {
+			RuleProfile profile = pop(rule, start);
+			if(profile != null) {
+				profile.failures++;
+			}
+			memo.putError(rule, start);
+		}
+
+		/**
+		 * 評価の終わりに対応するフレームを取り除き所要時間を加える．対応しなければnull
+		 */
+		private RuleProfile pop(Rule rule, int start) {
+			if(depth == 0 || frameRules[depth - 1] != rule || frameStarts[depth - 1] != start) {
+				return null;
+			}
+			depth--;
+			RuleProfile profile = frameProfiles[depth];
+			profile.nanos += System.nanoTime() - frameTimes[depth];
+			frameProfiles[depth] = null;
+			frameRules[depth] = null;
+			return profile;
+		}
+
+		/**
+		 * 評価中の規則の後戻りを数える
+		 */
+		void backtrack() {
+			if(depth > 0) {
+				frameProfiles[depth - 1].backtracks++;
+			}
+		}
+
+		@Override
+		public void putValue(Rule rule, int start, Parser<?> parser, Object value) {
+			memo.putValue(rule, start, parser, value);
+		}
+
+		@Override
+		public Object getValue(Rule rule, int start, Parser<?> parser) {
+			return memo.getValue(rule, start, parser);
+		}
+
+		@Override
+		public boolean isMemoized(Rule rule) {
+			return memo.isMemoized(rule);
+		}
+
+		@Override
+		public void cut(int pos) {
+			memo.cut(pos);
+		}
+
+		@Override
+		public int cutPosition() {
+			return memo.cutPosition();
+		}
+
+		@Override
+		public Failures failures() {
+			return memo.failures();
+		}
+
+		@Override
+		public int size() {
+			return memo.size();
+		}
+		@Override
+		public Grammar grammar() {
+			return memo.grammar();
+		}
+	}
+
+	/**
+	 * 読み取り位置を前に戻した回数を数えるソース
+	 */
+	private static final class ProfilingSource implements Source {
+		private final Source src;
+		private final ProfilingMemo memo;
+
+		ProfilingSource(Source src, ProfilingMemo memo) {
+			this.src = src;
+			this.memo = memo;
+		}
+
+		@Override
+		public void jump(int index) {
+			if(index < src.index()) {
+				memo.backtrack();
+			}
+			src.jump(index);
+		}
+
+		@Override
+		public int length() {
+			return src.length();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return src.hasNext();
+		}
+
+		@Override
+		public char next() {
+			return src.next();
+		}
+
+		@Override
+		public int peek() {
+			return src.peek();
+		}
+
+		@Override
+		public boolean regionMatches(String str) {
+			return src.regionMatches(str);
+		}
+
+		@Override
+		public int scanWhile(CharPredicate predicate) {
+			return src.scanWhile(predicate);
+		}
+
+		@Override
+		public int indexOf(char c) {
+			return src.indexOf(c);
+		}
+
+		@Override
+		public int index() {
+			return src.index();
+		}
+
+		@Override
+		public int lineNum() {
+			return src.lineNum();
+		}
+
+		@Override
+		public int columnNum() {
+			return src.columnNum();
+		}
+
+		@Override
+		public String makeString(int from, int to) {
+			return src.makeString(from, to);
+		}
+
+		@Override
+		public Source duplicate() {
+			return src.duplicate();
+		}
+
+		@Override
+		public void release(int index) {
+			src.release(index);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.lethe_river.peg.type2;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * 例外を投げずに読み取った解析結果．
+ * 成功した場合は結果オブジェクト，失敗した場合は最も後ろで失敗した位置とその位置で期待した終端記号を持つ
+ *
+ * @author YuyaAizawa
+ *
+ * @param <T> 結果オブジェクトの型
+ * @see Parser#tryParse(CharSequence)
+ */
+public final class ParseResult<T> {
+	private final boolean success;
+	private final T value;
+	private final int position;
+	private final ParseException failure;
+
+	private ParseResult(boolean success, T value, int position, ParseException failure) {
+		this.success = success;
+		this.value = value;
+		this.position = position;
+		this.failure = failure;
+	}
+
+	static <T> ParseResult<T> success(T value, int end) {
+		return new ParseResult<>(true, value, end, null);
+	}
+
+	/**
+	 * 失敗を表す結果を生成する．スタックトレースを持たない例外は投げなければ安価に生成できる
+	 */
+	static <T> ParseResult<T> failure(ParseException failure) {
+		return new ParseResult<>(false, null, failure.position(), failure);
+	}
+
+	/**
+	 * 解析に成功したかどうかを返す
+	 * @return 成功したならtrue
+	 */
+	public boolean isSuccess() {
+		return success;
+	}
+
+	/**
+	 * 結果オブジェクトを返す
+	 * @return 結果オブジェクト
+	 * @throws NoSuchElementException 解析に失敗した場合
+	 */
+	public T value() {
+		if(!success) {
+			throw new NoSuchElementException();
+		}
+		return value;
+	}
+
+	/**
+	 * 成功した場合は解析が終了した位置，失敗した場合は失敗した位置を返す
+	 * @return 位置
+	 */
+	public int position() {
+		return position;
+	}
+
+	/**
+	 * 失敗した位置で期待した終端記号の説明を返す
+	 * @return 説明のリスト，成功した場合は空
+	 */
+	public List<String> expected() {
+		return success ? List.of() : failure.expected();
+	}
+
+	/**
+	 * 結果オブジェクトを返す
+	 * @return 結果オブジェクト
+	 * @throws ParseException 解析に失敗した場合
+	 */
+	public T orElseThrow() {
+		if(!success) {
+			throw failure;
+		}
+		return value;
+	}
+
+	/**
+	 * 結果オブジェクトを返す
+	 * @return 結果オブジェクト，失敗した場合はempty
+	 */
+	public Optional<T> toOptional() {
+		return success ? Optional.ofNullable(value) : Optional.empty();
+	}
+
+	@Override
+	public String toString() {
+		return success
+				? "success(" + value + ", " + position + ")"
+				: "failure(" + position + ", " + expected() + ")";
+	}
+}
@@ -2,13 +2,13 @@ package com.lethe_river.peg.type2;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import com.lethe_river.util.primitive.function.CharPredicate;
@@ -31,7 +31,96 @@ public abstract class Parser<T> {
 	 * @throws ParseException 解析失敗の場合
 	 */
 	public final T parse(CharSequence src) {
-		return parse(Source.from(src), Memo.fullMemo());
+		return parse(Source.from(src), newMemo());
+	}
+
+	/**
+	 * ソースからオブジェクトを読み取る.
+	 * 呼出し後の読出し開始位置は，解析成功なら解析が終了した位置に進み，失敗なら解析開始位置に戻る．
+	 * @param src ソース
+	 * @return 結果オブジェクト
+	 * @throws ParseException 解析失敗の場合
+	 */
+	public final T parse(Source src) {
+		return parse(src, newMemo());
+	}
+
+	/**
+	 * 例外を投げずに文字列からオブジェクトを読み取る
+	 * @param src 文字列
+	 * @return 解析結果
+	 */
+	public final ParseResult<T> tryParse(CharSequence src) {
+		return tryParse(Source.from(src));
+	}
+
+	/**
+	 * 例外を投げずにソースからオブジェクトを読み取る.
+	 * 呼出し後の読出し開始位置は{@link #parse(Source)}と同じ．
+	 * @param src ソース
+	 * @return 解析結果
+	 */
+	@SuppressWarnings("unchecked")
+	public final ParseResult<T> tryParse(Source src) {
+		int start = src.index();
+		Memo memo = newMemo();
+		Object result = parseOrFailure(src, memo);
+		if(result == FAILURE) {
+			return ParseResult.failure(memo.failures().exception(start));
+		}
+		return ParseResult.success((T) result, src.index());
+	}
+
+	/**
+	 * 文字列から読み取るたびに利用するメモを生成する
+	 * @return メモ
+	 */
+	Memo newMemo() {
+		return Memo.fullMemo(grammar());
+	}
+
+	/**
+	 * このパーサの規則から到達可能な規則の文法を返す.
+	 * 最初に呼出したときに求め，このパーサが保持する．規則自身には何も書込まない．
+	 * @return 文法
+	 * @throws IllegalArgumentException 文法が不正な場合
+	 */
+	Grammar grammar() {
+		Grammar result = grammar;
+		if(result == null) {
+			// 同時に求めても同じ文法になるので同期しない
+			result = Grammar.of(rule);
+			grammar = result;
+		}
+		return result;
+	}
+
+	/**
+	 * 前方参照を全て解決して文法を検証し，不変なパーサを返す.
+	 *
+	 * 返されるパーサは複数のスレッドから同時に利用でき，
+	 * 呼出しごとの状態はソースとメモにのみ持つ．
+	 * メモには文法内の規則番号で索引付けたメモを利用する．
+	 * 左再帰する規則は失敗を種として結果を成長させて読み取る．
+	 *
+	 * @return 不変なパーサ
+	 * @throws IllegalArgumentException 文法が不正な場合
+	 * @throws IllegalStateException 前方参照が解決できない場合
+	 * @see Grammar
+	 */
+	public Parser<T> freeze() {
+		return new FrozenParser<>(this);
+	}
+
+	/**
+	 * 読み取りのたびに計測器を更新するパーサを返す.
+	 * {@link #parse(Source)}，{@link #tryParse(Source)}とそれらを利用する読み取りを計測し，
+	 * {@link #parseFused(Source)}は計測しない．
+	 * @param metrics 計測器
+	 * @return パーサ
+	 */
+	public Parser<T> withMetrics(ParserMetrics metrics) {
+		return new MeteredParser<>(this, metrics);
 	}
 
 	/**
@@ -45,11 +134,347 @@ public abstract class Parser<T> {
 	 * @return 解析結果
 	 * @throws ParseException 解析失敗の場合
 	 */
+	@SuppressWarnings("unchecked")
 	protected T parse(Source src, Memo memo) {
+		int start = src.index();
+		Object result = parseOrFailure(src, memo);
+		if(result == FAILURE) {
+			throw memo.failures().exception(start);
+		}
+		return (T) result;
+	}
+
+	/**
+	 * メモを利用してソースからオブジェクトを読み取る.
+	 * 呼出し後の読出し開始位置は{@link #parse(Source, Memo)}と同じ．
+	 * 受理判定の後で結果オブジェクトを生成し直せない文法は，1回の走査で読み取る．
+	 * @param src ソース
+	 * @param memo メモ
+	 * @return 結果オブジェクト，またはFAILURE
+	 */
+	Object parseOrFailure(Source src, Memo memo) {
+		if(isSinglePass(memo)) {
+			return parseFusedOrFailure(src, memo);
+		}
 		int start = src.index();
 		if(!getRule().parse(src, memo)) {
 			src.jump(start);
-			throw new ParseException();
+			return FAILURE;
+		}
+		int end = src.index();
+
+		src.jump(start);
+		T t = eval(src, memo);
+		src.jump(end);
+
+		return t;
+	}
+
+	/**
+	 * 受理判定と結果オブジェクトの生成を1回の走査で行わなければならないかどうかを返す.
+	 * メモの文法から引き，メモが文法を持たなければこのパーサの文法から引く．
+	 * @param memo メモ
+	 * @return 切断か左再帰する規則を含む場合true
+	 * @throws IllegalArgumentException 文法が不正な場合
+	 * @see Grammar
+	 */
+	final boolean isSinglePass(Memo memo) {
+		Grammar grammar = memo.grammar();
+		return (grammar != null ? grammar : grammar()).isSinglePass(rule);
+	}
+
+	/**
+	 * 書換えた文字列を前回の受理判定の記録を再利用して読み取るパーサを生成する
+	 * @param text 最初の文字列
+	 * @return パーサ
+	 * @see IncrementalParser
+	 */
+	public IncrementalParser<T> incremental(CharSequence text) {
+		return new IncrementalParser<>(this, text);
+	}
+
+	/**
+	 * 受理判定と結果オブジェクトの生成を1回の走査で行い，文字列からオブジェクトを読み取る.
+	 *
+	 * 選択や繰り返しで受理された部分の結果オブジェクトを受理判定の途中で生成するため，
+	 * 受理判定の後で内部のパーサを再び呼出すことはない．
+	 * 代わりに，後で失敗した選択肢の中で生成された結果オブジェクトは捨てられる．
+	 * 同じ位置で同じパーサが生成した結果オブジェクトはメモに記録して再利用するため，
+	 * 合成する関数は受け取った結果オブジェクトを変更してはならない．
+	 *
+	 * @param src 文字列
+	 * @return 結果オブジェクト
+	 * @throws ParseException 解析失敗の場合
+	 */
+	public final T parseFused(CharSequence src) {
+		return parseFused(Source.from(src), newMemo());
+	}
+
+	/**
+	 * 受理判定と結果オブジェクトの生成を1回の走査で行い，ソースからオブジェクトを読み取る.
+	 * 呼出し後の読出し開始位置は{@link #parse(Source)}と同じ．
+	 * ストリームから読み込むソースは，切断を含むパーサで読み取ると一定のメモリで読み取れる．
+	 * @param src ソース
+	 * @return 結果オブジェクト
+	 * @throws ParseException 解析失敗の場合
+	 * @see #commit()
+	 */
+	public final T parseFused(Source src) {
+		return parseFused(src, newMemo());
+	}
+
+	/**
+	 * メモを利用して受理判定と結果オブジェクトの生成を1回の走査で行う.
+	 *
+	 * 呼出し後の読出し開始位置は{@link #parse(Source, Memo)}と同じ．
+	 *
+	 * @param src
+	 * @param memo
+	 * @return 解析結果
+	 * @throws ParseException 解析失敗の場合
+	 */
+	@SuppressWarnings("unchecked")
+	protected final T parseFused(Source src, Memo memo) {
+		int start = src.index();
+		Object result = parseFusedOrFailure(src, memo);
+		if(result == FAILURE) {
+			throw memo.failures().exception(start);
+		}
+		return (T) result;
+	}
+
+	/**
+	 * メモを利用して受理判定と結果オブジェクトの生成を1回の走査で行う.
+	 * 呼出し後の読出し開始位置は{@link #parse(Source, Memo)}と同じ．
+	 * @param src ソース
+	 * @param memo メモ
+	 * @return 結果オブジェクト，またはFAILURE
+	 */
+	final Object parseFusedOrFailure(Source src, Memo memo) {
+		int start = src.index();
+		Object result = applyMemo(src, memo);
+		if(result == FAILURE) {
+			src.jump(start);
+		}
+		return result;
+	}
+
+	/**
+	 * applyが解析失敗を表すために返す値
+	 */
+	static final Object FAILURE = new Object();
+
+	/**
+	 * メモを利用してapplyを呼出し，ruleの結果と結果オブジェクトをメモに記録する.
+	 * このパーサが同じ位置で生成した結果オブジェクトが記録されていれば，applyを呼出さずにそれを返す．
+	 * @param src ソース
+	 * @param memo メモ
+	 * @return 結果オブジェクト，またはFAILURE
+	 */
+	final Object applyMemo(Source src, Memo memo) {
+		int start = src.index();
+		Grammar grammar = memo.grammar();
+		if(grammar != null) {
+			switch(grammar.leftRecursion(rule)) {
+			case Grammar.LEFT_RECURSION_INVOLVED:
+				return apply(src, memo);
+			case Grammar.LEFT_RECURSION_HEAD:
+				return grow(src, memo, start);
+			}
+		}
+		int end = memo.getEnd(rule, start);
+		if(end == Memo.ERROR) {
+			return FAILURE;
+		}
+		if(end >= 0) {
+			Object value = memo.getValue(rule, start, this);
+			if(value != Memo.NO_VALUE) {
+				src.jump(end);
+				return value;
+			}
+		}
+		Object result = apply(src, memo);
+		if(result == FAILURE) {
+			memo.putError(rule, start);
+		} else {
+			memo.putEnd(rule, start, src.index());
+			memo.putValue(rule, start, this, result);
+		}
+		return result;
+	}
+
+	/**
+	 * 失敗を種として記録し，結果が伸びなくなるまでapplyを繰り返す.
+	 * 成長中の結果オブジェクトはメモを包んで子に渡す．
+	 */
+	private Object grow(Source src, Memo memo, int start) {
+		for(Memo m = memo; m instanceof GrowingMemo; m = ((GrowingMemo) m).memo) {
+			GrowingMemo g = (GrowingMemo) m;
+			if(g.rule == rule && g.start == start) {
+				if(g.end == Memo.ERROR) {
+					return FAILURE;
+				}
+				src.jump(g.end);
+				return g.value;
+			}
+		}
+		int end = memo.getEnd(rule, start);
+		if(end == Memo.ERROR) {
+			return FAILURE;
+		}
+		if(end >= 0) {
+			Object value = memo.getValue(rule, start, this);
+			if(value != Memo.NO_VALUE) {
+				src.jump(end);
+				return value;
+			}
+		}
+		memo.putError(rule, start);
+		if(memo.getEnd(rule, start) != Memo.ERROR) {
+			throw new IllegalStateException("left recursion requires memo: <" + rule.id() + ">");
+		}
+		GrowingMemo growing = new GrowingMemo(memo, rule, start);
+		while(true) {
+			src.jump(start);
+			Object result = apply(src, growing);
+			if(result == FAILURE || src.index() <= growing.end) {
+				break;
+			}
+			growing.value = result;
+			growing.end = src.index();
+			memo.putEnd(rule, start, growing.end);
+		}
+		if(growing.end == Memo.ERROR) {
+			return FAILURE;
+		}
+		memo.putValue(rule, start, this, growing.value);
+		src.jump(growing.end);
+		return growing.value;
+	}
+
+	/**
+	 * 選択の選択肢．各選択肢の供給元は1度だけ呼出す
+	 */
+	private static final class Alternatives<T> implements Supplier<List<Parser<? extends T>>> {
+		private final List<Supplier<Parser<? extends T>>> suppliers;
+
+		/**
+		 * 解決済みの選択肢．不変リストなので同期せずに公開してよい
+		 */
+		private volatile List<Parser<? extends T>> resolved;
+
+		Alternatives(List<Supplier<Parser<? extends T>>> suppliers) {
+			this.suppliers = suppliers;
+		}
+
+		int size() {
+			return suppliers.size();
+		}
+
+		@Override
+		public List<Parser<? extends T>> get() {
+			List<Parser<? extends T>> result = resolved;
+			if(result == null) {
+				synchronized(this) {
+					result = resolved;
+					if(result == null) {
+						result = suppliers.stream()
+								.map(Supplier::get)
+								.collect(Collectors.toUnmodifiableList());
+						resolved = result;
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * 左再帰する規則の成長中の結果を持つメモ．記録は包んだメモに委ねる
+	 */
+	private static final class GrowingMemo implements Memo {
+		final Memo memo;
+		final Rule rule;
+		final int start;
+		Object value;
+		int end = Memo.ERROR;
+
+		GrowingMemo(Memo memo, Rule rule, int start) {
+			this.memo = memo;
+			this.rule = rule;
+			this.start = start;
+		}
+
+		@Override
+		public void putEnd(Rule rule, int start, int end) {
+			memo.putEnd(rule, start, end);
+		}
+
+		@Override
+		public void putError(Rule rule, int start) {
+			memo.putError(rule, start);
+		}
+
+		@Override
+		public int getEnd(Rule rule, int start) {
+			return memo.getEnd(rule, start);
+		}
+
+		@Override
+		public void putValue(Rule rule, int start, Parser<?> parser, Object value) {
+			memo.putValue(rule, start, parser, value);
+		}
+
+		@Override
+		public Object getValue(Rule rule, int start, Parser<?> parser) {
+			return memo.getValue(rule, start, parser);
+		}
+
+		@Override
+		public boolean isMemoized(Rule rule) {
+			return memo.isMemoized(rule);
+		}
+
+		@Override
+		public void cut(int pos) {
+			memo.cut(pos);
+		}
+
+		@Override
+		public int cutPosition() {
+			return memo.cutPosition();
+		}
+
+		@Override
+		public Failures failures() {
+			return memo.failures();
+		}
+
+		@Override
+		public int size() {
+			return memo.size();
+		}
+		@Override
+		public Grammar grammar() {
+			return memo.grammar();
+		}
+	}
+
+	/**
+	 * 受理判定を行いながら結果オブジェクトを生成する.
+	 *
+	 * 成功した場合ソースの読み取り位置は進められる．
+	 * 失敗した場合はFAILUREを返し，読み取り位置は未定義．
+	 * 既定の実装はruleで受理判定を行ってからevalを呼出す．
+	 *
+	 * @param src ソース
+	 * @param memo メモ
+	 * @return 結果オブジェクト，またはFAILURE
+	 */
+	Object apply(Source src, Memo memo) {
+		int start = src.index();
+		if(!rule.parse(src, memo)) {
+			return FAILURE;
 		}
 		int end = src.index();
 
@@ -77,6 +502,12 @@ public abstract class Parser<T> {
 	}
 
 	private final Rule rule;
+
+	/**
+	 * 求めた文法．Grammarのフィールドは全てfinalなので，同期せずに公開してよい
+	 */
+	private Grammar grammar;
+
 	protected Parser(Rule rule) {
 		this.rule = rule;
 	}
@@ -94,6 +525,20 @@ public abstract class Parser<T> {
 						Parser.this.parse(src, memo),
 						following.parse(src, memo));
 			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			Object apply(Source src, Memo memo) {
+				Object t = Parser.this.applyMemo(src, memo);
+				if(t == FAILURE) {
+					return FAILURE;
+				}
+				Object u = following.applyMemo(src, memo);
+				if(u == FAILURE) {
+					return FAILURE;
+				}
+				return combiner.apply((T) t, (U) u);
+			}
 		};
 	}
 	public Parser<T> then(VoidParser following) {
@@ -108,29 +553,33 @@ public abstract class Parser<T> {
 			Supplier<Parser<? extends T>> first,
 			Supplier<Parser<? extends T>>... rest) {
 
-		List<Supplier<Parser<? extends T>>> parsers =
+		Alternatives<T> alternatives = new Alternatives<>(
 				Stream.concat(
 						Stream.of(first),
 						Arrays.stream(rest))
-				.collect(Collectors.toList());
+				.collect(Collectors.toList()));
 
-		List<Supplier<Rule>> rules = parsers
-				.stream()
-				.map(s -> ((Supplier<Rule>)() -> s.get().getRule()))
+		// 規則も解決済みの選択肢から取り出し，受理判定と結果の生成で同じ規則を使う
+		List<Supplier<Rule>> rules = IntStream.range(0, alternatives.size())
+				.mapToObj(i -> ((Supplier<Rule>)() -> alternatives.get().get(i).getRule()))
 				.collect(Collectors.toList());
 
-		return new Parser<>(new Rule.Choice(rules)) {
+		Rule.Choice choice = new Rule.Choice(rules);
+		return new Parser<>(choice) {
+					private List<Parser<? extends T>> alternatives() {
+						return alternatives.get();
+					}
+
 					@Override
 					protected T eval(Source src, Memo memo) {
 						int start = src.index();
+						List<Parser<? extends T>> alternatives = alternatives();
+						int[] candidates = choice.candidates(src, memo);
+						int count = candidates == null ? alternatives.size() : candidates.length;
 
-						Iterator<Supplier<Parser<? extends T>>> ip = parsers.iterator();
-						Iterator<Supplier<Rule>> ir = rules.iterator();
-
-						while(ir.hasNext()) {
-							Rule rule = ir.next().get();
-							Parser<? extends T> parser = ip.next().get();
-							if(rule.parse(src, memo)) {
+						for (int i = 0; i < count; i++) {
+							Parser<? extends T> parser = alternatives.get(candidates == null ? i : candidates[i]);
+							if(parser.getRule().parse(src, memo)) {
 								src.jump(start);
 								return parser.parse(src, memo);
 							}
@@ -139,9 +588,43 @@ public abstract class Parser<T> {
 						// 到達しないはず，Rule#parseが偽を返しているはず
 						throw new Error();
 					}
+
+					@Override
+					Object apply(Source src, Memo memo) {
+						int start = src.index();
+						List<Parser<? extends T>> alternatives = alternatives();
+						int[] candidates = choice.candidates(src, memo);
+						int count = candidates == null ? alternatives.size() : candidates.length;
+
+						for (int i = 0; i < count; i++) {
+							Parser<? extends T> parser = alternatives.get(candidates == null ? i : candidates[i]);
+							Object result = parser.applyMemo(src, memo);
+							if(result != FAILURE) {
+								return result;
+							}
+							if(start < memo.cutPosition()) {
+								return FAILURE;
+							}
+							src.jump(start);
+						}
+						if(candidates != null) {
+							choice.failSkipped(start, candidates, memo);
+						}
+						return FAILURE;
+					}
 		};
 	}
 
+	/**
+	 * 被演算子と演算子の優先順位表から式のパーサを生成するビルダを返す
+	 * @param operand 被演算子
+	 * @return ビルダ
+	 * @see Operators
+	 */
+	public static <T> Operators<T> operators(Parser<T> operand) {
+		return new Operators<>(operand);
+	}
+
 	public Parser<List<T>> star() {
 		return new Parser<>(new Rule.Star(rule)) {
 			@Override
@@ -156,6 +639,24 @@ public abstract class Parser<T> {
 				}
 				return list;
 			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			Object apply(Source src, Memo memo) {
+				List<T> list = new ArrayList<>();
+				while(true) {
+					int pos = src.index();
+					Object t = Parser.this.applyMemo(src, memo);
+					if(t == FAILURE) {
+						if(pos < memo.cutPosition()) {
+							return FAILURE;
+						}
+						src.jump(pos);
+						return list;
+					}
+					list.add((T) t);
+				}
+			}
 		};
 	}
 
@@ -173,6 +674,24 @@ public abstract class Parser<T> {
 				}
 				return list;
 			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			Object apply(Source src, Memo memo) {
+				List<T> list = new ArrayList<>();
+				while(true) {
+					int pos = src.index();
+					Object t = Parser.this.applyMemo(src, memo);
+					if(t == FAILURE) {
+						if(pos < memo.cutPosition()) {
+							return FAILURE;
+						}
+						src.jump(pos);
+						return list.isEmpty() ? FAILURE : list;
+					}
+					list.add((T) t);
+				}
+			}
 		};
 	}
 
@@ -187,9 +706,134 @@ public abstract class Parser<T> {
 				}
 				return Optional.empty();
 			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			Object apply(Source src, Memo memo) {
+				int start = src.index();
+				Object t = Parser.this.applyMemo(src, memo);
+				if(t == FAILURE) {
+					if(start < memo.cutPosition()) {
+						return FAILURE;
+					}
+					src.jump(start);
+					return Optional.empty();
+				}
+				return Optional.of((T) t);
+			}
+		};
+	}
+
+	/**
+	 * このパーサが成功した位置で切断するパーサを返す.
+	 * 切断した位置より前には戻らないため，メモは切断より前の記録を，ソースは切断より前の内容を捨てられる．
+	 * 切断を含むパーサは{@link #parse(CharSequence)}でも受理判定と結果オブジェクトの生成を1回の走査で行う．
+	 * @return 成功後に切断するパーサ
+	 * @see Rule.Cut
+	 */
+	public Parser<T> commit() {
+		return new Parser<>(new Rule.Sequence(rule, new Rule.Cut())) {
+			@Override
+			protected T eval(Source src, Memo memo) {
+				T t = Parser.this.parse(src, memo);
+				memo.cut(src.index());
+				src.release(src.index());
+				return t;
+			}
+
+			@Override
+			Object apply(Source src, Memo memo) {
+				Object t = Parser.this.applyMemo(src, memo);
+				if(t == FAILURE) {
+					return FAILURE;
+				}
+				memo.cut(src.index());
+				src.release(src.index());
+				return t;
+			}
 		};
 	}
 
+	/**
+	 * 何も読み取らずに現在の位置で切断するパーサを返す
+	 * @return 切断するパーサ
+	 * @see Rule.Cut
+	 */
+	public static VoidParser cut() {
+		return new VoidParser(new Rule.Cut());
+	}
+
+	/**
+	 * このパーサの繰り返しとして文字列全体を読み取る.
+	 *
+	 * 入力を区切りが受理される位置の直後で分割し，分割した区間を並列に読み取る．
+	 * 区切りは記録の開始位置の直前に受理される規則で，
+	 * 推測した区切りが記録の途中だった場合でも結果は逐次的に読み取った場合と同じになる．
+	 * 記録はそれぞれ前の記録に依存せず読み取れなければならない．
+	 *
+	 * @param src 文字列
+	 * @param boundary 区切り
+	 * @return 記録のリスト
+	 * @throws ParseException 文字列全体を記録の繰り返しとして読み取れない場合
+	 */
+	public final List<T> parseAllParallel(CharSequence src, Parser<?> boundary) {
+		return parseAllParallel(Source.from(src), boundary);
+	}
+
+	/**
+	 * このパーサの繰り返しとしてソース全体を読み取る.
+	 * {@link Source#duplicate()}で複製できないソースは分割せず，逐次的に読み取る．
+	 *
+	 * @param src ソース
+	 * @param boundary 区切り
+	 * @return 記録のリスト
+	 * @throws ParseException ソース全体を記録の繰り返しとして読み取れない場合
+	 * @see #parseAllParallel(CharSequence, Parser)
+	 */
+	public final List<T> parseAllParallel(Source src, Parser<?> boundary) {
+		return new ParallelRecordParser<>(this, boundary).parse(src);
+	}
+
+	/**
+	 * 改行の直後を区切りとして，このパーサの繰り返しとして文字列全体を並列に読み取る.
+	 * 行単位の記録を想定している．
+	 *
+	 * @param src 文字列
+	 * @return 記録のリスト
+	 * @throws ParseException 文字列全体を記録の繰り返しとして読み取れない場合
+	 * @see #parseAllParallel(CharSequence, Parser)
+	 */
+	public final List<T> parseAllParallel(CharSequence src) {
+		return parseAllParallel(src, Parser.of("\n"));
+	}
+
+	/**
+	 * 読み取れない記録を読み飛ばしながら，このパーサの繰り返しとして文字列全体を読み取る.
+	 *
+	 * 記録の読み取りに失敗した場合は誤りを記録し，記録の開始位置以降で最初に同期点が受理される位置の直後から再開する．
+	 * 同期点が見つからなければ残りを全て読み飛ばす．
+	 * 文字列は1回の走査で読み取り，失敗した記録を読み取り直すことはない．
+	 *
+	 * @param src 文字列
+	 * @param sync 同期点
+	 * @return 読み取れた記録と誤りのリスト
+	 */
+	public final Recovered<T> parseAllRecovering(CharSequence src, Parser<?> sync) {
+		return new RecoveringParser<>(this, sync).parse(src);
+	}
+
+	/**
+	 * 改行の直後を同期点として，読み取れない記録を読み飛ばしながらこのパーサの繰り返しとして文字列全体を読み取る.
+	 * 行単位の記録を想定している．
+	 *
+	 * @param src 文字列
+	 * @return 読み取れた記録と誤りのリスト
+	 * @see #parseAllRecovering(CharSequence, Parser)
+	 */
+	public final Recovered<T> parseAllRecovering(CharSequence src) {
+		return parseAllRecovering(src, Parser.of("\n"));
+	}
+
 	public static VoidParser and(Parser<?> original) {
 		return new VoidParser(new Rule.AndPredicate(original.rule));
 	}
@@ -204,6 +848,16 @@ public abstract class Parser<T> {
 			protected U eval(Source src, Memo memo) {
 				return mapper.apply(Parser.this.eval(src, memo));
 			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			Object apply(Source src, Memo memo) {
+				Object t = Parser.this.apply(src, memo);
+				if(t == FAILURE) {
+					return FAILURE;
+				}
+				return mapper.apply((T) t);
+			}
 		};
 	}
 
@@ -220,6 +874,20 @@ public abstract class Parser<T> {
 				ResultWithLocation<T> resultWithLocation = new ResultWithLocation<>(result, location);
 				return resultWithLocation;
 			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			Object apply(Source src, Memo memo) {
+				int start = src.index();
+				Object result = Parser.this.apply(src, memo);
+				if(result == FAILURE) {
+					return FAILURE;
+				}
+				int end = src.index();
+
+				Location location = new Location(src, start, end);
+				return new ResultWithLocation<>((T) result, location);
+			}
 		};
 	}
 
@@ -235,8 +903,61 @@ public abstract class Parser<T> {
 		return new VoidParser(rule);
 	}
 
+	/**
+	 * 文字列のいずれかを受理し，受理した文字列を返すパーサを生成する.
+	 * 複数の文字列が続く場合は最初に列挙されたものを受理する．
+	 * @param literals 文字列
+	 * @return パーサ
+	 * @throws IllegalArgumentException 文字列がない場合
+	 */
+	public static Parser<String> oneOf(String... literals) {
+		return oneOf(Rule.Literals.Priority.FIRST_LISTED, literals);
+	}
+
+	/**
+	 * 文字列のいずれかを受理し，受理した文字列を返すパーサを生成する
+	 * @param priority 複数の文字列が続く場合に受理する文字列
+	 * @param literals 文字列
+	 * @return パーサ
+	 * @throws IllegalArgumentException 文字列がない場合
+	 */
+	public static Parser<String> oneOf(Rule.Literals.Priority priority, String... literals) {
+		Rule.Literals rule = new Rule.Literals(priority, literals);
+		return new Parser<>(rule) {
+			@Override
+			protected String eval(Source src, Memo memo) {
+				return rule.literals().get(rule.match(src));
+			}
+
+			@Override
+			Object apply(Source src, Memo memo) {
+				int index = rule.match(src);
+				if(index < 0) {
+					memo.failures().fail(rule, src.index());
+					return FAILURE;
+				}
+				return rule.literals().get(index);
+			}
+		};
+	}
+
 	public static Parser<Character> character(CharPredicate predicate, String description) {
-		return new Parser<>(new Rule.PredicatedChar(predicate, description)) {
+		return character(new Rule.PredicatedChar(predicate, description));
+	}
+
+	/**
+	 * 文字クラスの記法で指定した文字を1文字受理するパーサを生成する
+	 * @param spec 記法
+	 * @return パーサ
+	 * @throws IllegalArgumentException 記法が不正な場合
+	 * @see Rule.CharClass#of(String)
+	 */
+	public static Parser<Character> charClass(String spec) {
+		return character(Rule.CharClass.of(spec));
+	}
+
+	private static Parser<Character> character(Rule.PredicatedChar rule) {
+		return new Parser<>(rule) {
 			@Override
 			protected Character eval(Source src, Memo memo) {
 				return Character.valueOf(src.next());
@@ -245,11 +966,39 @@ public abstract class Parser<T> {
 	}
 
 	public static Parser<String> characters(CharPredicate predicate, String description) {
-		return new Parser<>(new Rule.Plus(new Rule.PredicatedChar(predicate, description))) {
+		return characters(new Rule.PredicatedChar(predicate, description));
+	}
+
+	/**
+	 * 文字クラスの記法で指定した文字の1文字以上の並びを受理するパーサを生成する
+	 * @param spec 記法
+	 * @return パーサ
+	 * @throws IllegalArgumentException 記法が不正な場合
+	 * @see Rule.CharClass#of(String)
+	 */
+	public static Parser<String> charClasses(String spec) {
+		return characters(Rule.CharClass.of(spec));
+	}
+
+	private static Parser<String> characters(Rule.PredicatedChar rule) {
+		CharPredicate predicate = rule.predicate();
+		return new Parser<>(new Rule.Plus(rule)) {
 			@Override
 			protected String eval(Source src, Memo memo) {
 				int from = src.index();
-				getRule().parse(src, memo);
+				src.scanWhile(predicate);
+				int to = src.index();
+				return src.makeString(from, to);
+			}
+
+			@Override
+			Object apply(Source src, Memo memo) {
+				int from = src.index();
+				int count = src.scanWhile(predicate);
+				memo.failures().fail(rule, src.index());
+				if(count == 0) {
+					return FAILURE;
+				}
 				int to = src.index();
 				return src.makeString(from, to);
 			}
@@ -0,0 +1,276 @@
+package com.lethe_river.peg.type2;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * パーサの読み取りの回数，文字数，失敗，所要時間とメモの大きさの分布を集計する計測器.
+ *
+ * {@link Parser#withMetrics(ParserMetrics)}で取り付けたパーサが読み取るたびに更新する．
+ * 更新は数個の加算と時刻の取得2回で，複数のスレッドから同時に更新できる．
+ * 集計値は写し取って参照するか，定期的に呼出し先へ渡すか，JMXに公開する．
+ *
+ * @author YuyaAizawa
+ */
+public final class ParserMetrics {
+	private final LongAdder parses = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder characters = new LongAdder();
+	private final Histogram latency = new Histogram();
+	private final Histogram memoSizes = new Histogram();
+	private final long created = System.nanoTime();
+
+	public ParserMetrics() {}
+
+	/**
+	 * 1回の読み取りを集計する
+	 * @param nanos 所要時間
+	 * @param characters 読み取った文字数
+	 * @param success 成功したかどうか
+	 * @param memoSize 読み取りの後のメモの大きさ
+	 */
+	void record(long nanos, int characters, boolean success, int memoSize) {
+		parses.increment();
+		if(!success) {
+			failures.increment();
+		}
+		this.characters.add(characters);
+		latency.record(nanos);
+		memoSizes.record(memoSize);
+	}
+
+	/**
+	 * 生成してからの集計値を写し取る
+	 * @return 集計値
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(
+				System.nanoTime() - created,
+				parses.sum(),
+				failures.sum(),
+				characters.sum(),
+				latency.snapshot(),
+				memoSizes.snapshot());
+	}
+
+	/**
+	 * 一定の間隔で，前回からの間の集計値を呼出し先に渡す.
+	 * 呼出しは共有のデーモンスレッドで行う．
+	 * @param callback 呼出し先
+	 * @param period 間隔
+	 * @param unit 間隔の単位
+	 * @return 取り消す場合に{@link ScheduledFuture#cancel(boolean)}を呼出す
+	 */
+	public ScheduledFuture<?> export(Consumer<? super Snapshot> callback, long period, TimeUnit unit) {
+		Snapshot[] previous = {snapshot()};
+		return Exporter.EXECUTOR.scheduleAtFixedRate(() -> {
+			Snapshot current = snapshot();
+			callback.accept(current.minus(previous[0]));
+			previous[0] = current;
+		}, period, period, unit);
+	}
+
+	/**
+	 * 集計値をプラットフォームのMBeanサーバに"com.lethe_river.peg:type=Parser,name=名前"で公開する
+	 * @param name 名前
+	 * @return 登録した名前．登録を解除する場合に用いる
+	 * @throws JMException 登録できない場合
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName("com.lethe_river.peg:type=Parser,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(this), objectName);
+		return objectName;
+	}
+
+	/**
+	 * ある時点または期間の集計値
+	 */
+	public static final class Snapshot {
+		private final long elapsedNanos;
+		private final long parses;
+		private final long failures;
+		private final long characters;
+		private final Histogram.Snapshot latency;
+		private final Histogram.Snapshot memoSizes;
+
+		private Snapshot(long elapsedNanos, long parses, long failures, long characters,
+				Histogram.Snapshot latency, Histogram.Snapshot memoSizes) {
+			this.elapsedNanos = elapsedNanos;
+			this.parses = parses;
+			this.failures = failures;
+			this.characters = characters;
+			this.latency = latency;
+			this.memoSizes = memoSizes;
+		}
+
+		/**
+		 * 集計した期間の長さを返す
+		 * @return ナノ秒
+		 */
+		public long elapsedNanos() {
+			return elapsedNanos;
+		}
+
+		public long parses() {
+			return parses;
+		}
+
+		public long failures() {
+			return failures;
+		}
+
+		/**
+		 * 成功した読み取りで読み取った文字数の合計を返す
+		 * @return 文字数
+		 */
+		public long characters() {
+			return characters;
+		}
+
+		/**
+		 * 読み取りの所要時間の分布を返す
+		 * @return ナノ秒の分布
+		 */
+		public Histogram.Snapshot latency() {
+			return latency;
+		}
+
+		/**
+		 * 読み取りの後のメモの大きさの分布を返す．大きさは記録の数，または記録のために確保した領域の要素数
+		 * @return 分布
+		 */
+		public Histogram.Snapshot memoSizes() {
+			return memoSizes;
+		}
+
+		public double parsesPerSecond() {
+			return perSecond(parses);
+		}
+
+		public double charactersPerSecond() {
+			return perSecond(characters);
+		}
+
+		/**
+		 * 失敗した読み取りの割合を返す
+		 * @return 割合，読み取りがなければ0
+		 */
+		public double failureRate() {
+			return parses == 0 ? 0 : (double) failures / parses;
+		}
+
+		private double perSecond(long count) {
+			return elapsedNanos <= 0 ? 0 : count * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * この集計値から以前の集計値を差し引いた，その間の集計値を返す
+		 * @param earlier 同じ計測器の以前の集計値
+		 * @return 差分
+		 */
+		public Snapshot minus(Snapshot earlier) {
+			return new Snapshot(
+					elapsedNanos - earlier.elapsedNanos,
+					parses - earlier.parses,
+					failures - earlier.failures,
+					characters - earlier.characters,
+					latency.minus(earlier.latency),
+					memoSizes.minus(earlier.memoSizes));
+		}
+
+		@Override
+		public String toString() {
+			return String.format("parses: %d (%.1f/s), characters: %d (%.1f/s), failure rate: %.4f, latency(ns): [%s], memo size: [%s]",
+					parses, parsesPerSecond(), characters, charactersPerSecond(), failureRate(), latency, memoSizes);
+		}
+	}
+
+	private static final class Exporter {
+		static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "parser-metrics-exporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static final class Bean implements ParserMetricsMXBean {
+		private final ParserMetrics metrics;
+
+		Bean(ParserMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		@Override
+		public long getParses() {
+			return metrics.parses.sum();
+		}
+
+		@Override
+		public long getFailures() {
+			return metrics.failures.sum();
+		}
+
+		@Override
+		public long getCharacters() {
+			return metrics.characters.sum();
+		}
+
+		@Override
+		public double getParsesPerSecond() {
+			return metrics.snapshot().parsesPerSecond();
+		}
+
+		@Override
+		public double getCharactersPerSecond() {
+			return metrics.snapshot().charactersPerSecond();
+		}
+
+		@Override
+		public double getFailureRate() {
+			return metrics.snapshot().failureRate();
+		}
+
+		@Override
+		public long getLatencyP50() {
+			return metrics.latency.snapshot().percentile(50);
+		}
+
+		@Override
+		public long getLatencyP99() {
+			return metrics.latency.snapshot().percentile(99);
+		}
+
+		@Override
+		public long getLatencyP999() {
+			return metrics.latency.snapshot().percentile(99.9);
+		}
+
+		@Override
+		public long getLatencyMax() {
+			return metrics.latency.snapshot().max();
+		}
+
+		@Override
+		public long getMemoSizeP50() {
+			return metrics.memoSizes.snapshot().percentile(50);
+		}
+
+		@Override
+		public long getMemoSizeP99() {
+			return metrics.memoSizes.snapshot().percentile(99);
+		}
+
+		@Override
+		public long getMemoSizeMax() {
+			return metrics.memoSizes.snapshot().max();
+		}
+	}
+}
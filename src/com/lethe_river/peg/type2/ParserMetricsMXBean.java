@@ -0,0 +1,24 @@
+package com.lethe_river.peg.type2;
+
+/**
+ * JMXに公開するパーサの計測値.
+ * 値は計測器を生成してからの累計で，時間はナノ秒で表す．
+ *
+ * @author YuyaAizawa
+ * @see ParserMetrics#registerMBean(String)
+ */
+public interface ParserMetricsMXBean {
+	long getParses();
+	long getFailures();
+	long getCharacters();
+	double getParsesPerSecond();
+	double getCharactersPerSecond();
+	double getFailureRate();
+	long getLatencyP50();
+	long getLatencyP99();
+	long getLatencyP999();
+	long getLatencyMax();
+	long getMemoSizeP50();
+	long getMemoSizeP99();
+	long getMemoSizeMax();
+}
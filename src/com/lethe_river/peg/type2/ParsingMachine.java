@@ -0,0 +1,546 @@
+package com.lethe_river.peg.type2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.lethe_river.util.primitive.function.CharPredicate;
+
+/**
+ * 文法を命令列に変換して受理判定を行う仮想機械.
+ *
+ * 終端記号以外の規則はそれぞれ1つのサブルーチンに変換され，
+ * 呼出しと選択の戻り先は配列上のスタックに積まれる．
+ * このためJavaのスタックを消費せず，入れ子の深さはヒープの大きさのみで制限される．
+ * 実行中にオブジェクトは生成しない．
+ * 規則の呼出しの結果は元の規則をキーとしてメモに記録するため，
+ * 同じメモを解釈実行と共有できる．
+ *
+ * 左再帰する規則は種の成長を解釈実行に任せ，その規則の中ではJavaのスタックを消費する．
+ * 解釈実行は左再帰の役割をメモの文法から引くため，左再帰する規則を含む文法ではメモは文法を持たなければならない．
+ *
+ * @author YuyaAizawa
+ */
+public final class ParsingMachine {
+
+	// 命令．オペランドは命令の後ろに続く
+
+	/** 1文字 c を読み取る: CHAR c */
+	private static final int CHAR = 0;
+	/** 文字列を読み取る: STRING 文字列の番号 */
+	private static final int STRING = 1;
+	/** 条件を満たす1文字を読み取る: SET 条件の番号 */
+	private static final int SET = 2;
+	/** 条件を満たす0文字以上を読み取る: SPAN 条件の番号 最小の文字数 */
+	private static final int SPAN = 3;
+	/** 文字列の集合のいずれかを読み取る: LITERALS 規則の番号 */
+	private static final int LITERALS = 4;
+	/** 規則を解釈実行する: RULE 規則の番号 */
+	private static final int RULE = 5;
+	/** 戻り先を積む: CHOICE 戻り先 */
+	private static final int CHOICE = 6;
+	/** 戻り先を捨てて移動する: COMMIT 移動先 */
+	private static final int COMMIT = 7;
+	/** 戻り先の位置を現在の位置に更新して移動する: PARTIAL_COMMIT 移動先 */
+	private static final int PARTIAL_COMMIT = 8;
+	/** 戻り先を捨て，その位置に戻って移動する: BACK_COMMIT 移動先 */
+	private static final int BACK_COMMIT = 9;
+	/** 戻り先を捨てて失敗する: FAIL_TWICE */
+	private static final int FAIL_TWICE = 10;
+	/** 失敗する: FAIL */
+	private static final int FAIL = 11;
+	/** 規則を呼出す: CALL 規則の番号 */
+	private static final int CALL = 12;
+	/** 規則から戻る: RET */
+	private static final int RET = 13;
+	/** 切断する: CUT */
+	private static final int CUT = 14;
+	/** 受理する: END */
+	private static final int END = 15;
+
+	// スタックの要素: 種類, 戻り先の命令, 規則の番号, 位置
+	private static final int FRAME = 4;
+	private static final int BACKTRACK_FRAME = 0;
+	private static final int CALL_FRAME = 1;
+
+	private final Grammar grammar;
+	private final int[] code;
+
+	/**
+	 * 番号で索引付けた，規則のサブルーチンの先頭
+	 */
+	private final int[] entries;
+
+	/**
+	 * 番号で索引付けた，規則の結果を記録するかどうか
+	 */
+	private final boolean[] memoized;
+
+	private final String[] strings;
+	private final CharPredicate[] predicates;
+	private final Rule[] terms;
+
+	/**
+	 * 命令の位置で索引付けた，終端記号の命令が失敗したときに記録する終端記号
+	 */
+	private final Rule.RuleWithDescription[][] expected;
+
+	private ParsingMachine(Grammar grammar, boolean[] memoized) {
+		this.grammar = grammar;
+		this.memoized = memoized;
+		Assembler assembler = new Assembler(grammar);
+		this.code = assembler.code();
+		this.entries = assembler.entries;
+		this.strings = assembler.strings.toArray(new String[0]);
+		this.predicates = assembler.predicates.toArray(new CharPredicate[0]);
+		this.terms = assembler.terms.toArray(new Rule[0]);
+		this.expected = assembler.expected;
+	}
+
+	/**
+	 * 全ての規則の結果をメモに記録する仮想機械を生成する
+	 * @param start 開始規則
+	 * @return 仮想機械
+	 * @throws IllegalArgumentException 不正な文法の場合
+	 */
+	public static ParsingMachine compile(Rule start) {
+		return compile(MemoPolicy.all(Grammar.of(start)));
+	}
+
+	/**
+	 * 方針に従って規則の結果をメモに記録する仮想機械を生成する
+	 * @param policy 方針
+	 * @return 仮想機械
+	 */
+	public static ParsingMachine compile(MemoPolicy policy) {
+		Grammar grammar = policy.grammar();
+		boolean[] memoized = new boolean[grammar.size()];
+		for (int i = 0; i < memoized.length; i++) {
+			memoized[i] = policy.isMemoized(grammar.rule(i));
+		}
+		return new ParsingMachine(grammar, memoized);
+	}
+
+	/**
+	 * 対象の文法を返す
+	 * @return 文法
+	 */
+	public Grammar grammar() {
+		return grammar;
+	}
+
+	/**
+	 * 開始規則で指定したソースをパースし結果を返す．
+	 * メモは文法の全ての規則の結果を記録する
+	 * @param src ソース
+	 * @return 受理すればtrue
+	 */
+	public boolean parse(Source src) {
+		return parse(src, Memo.denseMemo(grammar));
+	}
+
+	/**
+	 * メモを利用して開始規則で指定したソースをパースし結果を返す．
+	 * 成功した場合ソースの読み取り位置は進められる．
+	 * 失敗した場合の読み取り位置は未定義．
+	 * 結果は開始規則の{@link Rule#parse(Source, Memo)}と同じ．
+	 * 左再帰する規則を含む文法では，メモは{@link Memo#grammar()}にこの文法を持たなければならない．
+	 * @param src ソース
+	 * @param memo メモ
+	 * @return 受理すればtrue
+	 */
+	public boolean parse(Source src, Memo memo) {
+		final int[] code = this.code;
+		int[] stack = new int[FRAME * 16];
+		int sp = 0;
+		int pc = 0;
+
+		while(true) {
+			boolean failed = false;
+			int pos = src.index();
+			switch(code[pc]) {
+			case CHAR:
+				if(src.hasNext() && src.next() == code[pc + 1]) {
+					pc += 2;
+				} else {
+					fail(memo, pc, pos);
+					failed = true;
+				}
+				break;
+			case STRING:
+				if(src.regionMatches(strings[code[pc + 1]])) {
+					pc += 2;
+				} else {
+					fail(memo, pc, pos);
+					failed = true;
+				}
+				break;
+			case SET:
+				if(src.hasNext() && predicates[code[pc + 1]].test(src.next())) {
+					pc += 2;
+				} else {
+					fail(memo, pc, pos);
+					failed = true;
+				}
+				break;
+			case SPAN: {
+				int count = src.scanWhile(predicates[code[pc + 1]]);
+				fail(memo, pc, src.index());
+				if(count >= code[pc + 2]) {
+					pc += 3;
+				} else {
+					failed = true;
+				}
+				break;
+			}
+			case LITERALS:
+				if(((Rule.Literals) terms[code[pc + 1]]).match(src) >= 0) {
+					pc += 2;
+				} else {
+					fail(memo, pc, pos);
+					failed = true;
+				}
+				break;
+			case RULE:
+				if(terms[code[pc + 1]].parse(src, memo)) {
+					pc += 2;
+				} else {
+					failed = true;
+				}
+				break;
+			case CHOICE:
+				if(sp + FRAME > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[sp] = BACKTRACK_FRAME;
+				stack[sp + 1] = code[pc + 1];
+				stack[sp + 3] = src.index();
+				sp += FRAME;
+				pc += 2;
+				break;
+			case COMMIT:
+				sp -= FRAME;
+				pc = code[pc + 1];
+				break;
+			case PARTIAL_COMMIT:
+				stack[sp - FRAME + 3] = src.index();
+				pc = code[pc + 1];
+				break;
+			case BACK_COMMIT:
+				sp -= FRAME;
+				src.jump(stack[sp + 3]);
+				pc = code[pc + 1];
+				break;
+			case FAIL_TWICE:
+				sp -= FRAME;
+				failed = true;
+				break;
+			case FAIL:
+				failed = true;
+				break;
+			case CALL: {
+				int rule = code[pc + 1];
+				int start = src.index();
+				int r = memoized[rule] ? memo.getEnd(grammar.rule(rule), start) : Memo.NULL;
+				if(r == Memo.ERROR) {
+					failed = true;
+					break;
+				}
+				if(r != Memo.NULL) {
+					src.jump(r);
+					pc += 2;
+					break;
+				}
+				if(sp + FRAME > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[sp] = CALL_FRAME;
+				stack[sp + 1] = pc + 2;
+				stack[sp + 2] = rule;
+				stack[sp + 3] = start;
+				sp += FRAME;
+				pc = entries[rule];
+				break;
+			}
+			case RET:
+				sp -= FRAME;
+				if(memoized[stack[sp + 2]]) {
+					memo.putEnd(grammar.rule(stack[sp + 2]), stack[sp + 3], src.index());
+				}
+				pc = stack[sp + 1];
+				break;
+			case CUT:
+				memo.cut(src.index());
+				src.release(src.index());
+				pc += 1;
+				break;
+			case END:
+				return true;
+			default:
+				throw new Error();
+			}
+
+			if(!failed) {
+				continue;
+			}
+			// 戻り先まで巻き戻す．途中の呼出しは失敗を記録する
+			while(true) {
+				if(sp == 0) {
+					return false;
+				}
+				sp -= FRAME;
+				if(stack[sp] == CALL_FRAME) {
+					if(memoized[stack[sp + 2]]) {
+						memo.putError(grammar.rule(stack[sp + 2]), stack[sp + 3]);
+					}
+					continue;
+				}
+				int back = stack[sp + 3];
+				if(back < memo.cutPosition()) {
+					continue;
+				}
+				src.jump(back);
+				pc = stack[sp + 1];
+				break;
+			}
+		}
+	}
+
+	/**
+	 * 終端記号の命令の失敗をメモに記録する
+	 */
+	private void fail(Memo memo, int pc, int pos) {
+		Failures failures = memo.failures();
+		if(pos < failures.position()) {
+			return;
+		}
+		for(Rule.RuleWithDescription term : expected[pc]) {
+			failures.fail(term, pos);
+		}
+	}
+
+	/**
+	 * 規則を命令列に変換する
+	 */
+	private static final class Assembler {
+		private final Grammar grammar;
+		private int[] code = new int[64];
+		private Rule.RuleWithDescription[][] expected = new Rule.RuleWithDescription[64][];
+		private int size = 0;
+		final int[] entries;
+		final List<String> strings = new ArrayList<>();
+		final List<CharPredicate> predicates = new ArrayList<>();
+		final List<Rule> terms = new ArrayList<>();
+
+		Assembler(Grammar grammar) {
+			this.grammar = grammar;
+			this.entries = new int[grammar.size()];
+
+			expression(grammar.start());
+			emit(END);
+			for (int i = 0; i < grammar.size(); i++) {
+				Rule rule = grammar.rule(i);
+				if(isInline(rule) || isInterpreted(rule)) {
+					continue;
+				}
+				entries[i] = size;
+				body(rule);
+				emit(RET);
+			}
+		}
+
+		int[] code() {
+			return Arrays.copyOf(code, size);
+		}
+
+		/**
+		 * 呼出さずにその場に展開する規則かどうか
+		 */
+		private static boolean isInline(Rule rule) {
+			return rule.kind() == Rule.Kind.TERM || rule.kind() == Rule.Kind.CUT;
+		}
+
+		/**
+		 * 命令に変換せず解釈実行する規則かどうか
+		 */
+		private boolean isInterpreted(Rule rule) {
+			return grammar.leftRecursion(rule) != Grammar.NOT_LEFT_RECURSIVE;
+		}
+
+		/**
+		 * 規則を読み取る命令を生成する．終端記号は展開し，それ以外は呼出す
+		 */
+		private void expression(Rule rule) {
+			if(rule.kind() == Rule.Kind.CUT) {
+				emit(CUT);
+				return;
+			}
+			if(isInterpreted(rule)) {
+				emit(RULE, terms.size());
+				terms.add(rule);
+				return;
+			}
+			if(!isInline(rule)) {
+				emit(CALL, grammar.indexOf(rule));
+				return;
+			}
+			if(rule instanceof Rule.FullMatch) {
+				String str = ((Rule.FullMatch) rule).string();
+				if(str.length() == 1) {
+					expect(emit(CHAR, str.charAt(0)), (Rule.FullMatch) rule);
+				} else {
+					expect(emit(STRING, strings.size()), (Rule.FullMatch) rule);
+					strings.add(str);
+				}
+				return;
+			}
+			if(rule instanceof Rule.PredicatedChar) {
+				expect(emit(SET, predicates.size()), (Rule.PredicatedChar) rule);
+				predicates.add(((Rule.PredicatedChar) rule).predicate());
+				return;
+			}
+			if(rule instanceof Rule.Literals) {
+				expect(emit(LITERALS, terms.size()), (Rule.Literals) rule);
+				terms.add(rule);
+				return;
+			}
+			emit(RULE, terms.size());
+			terms.add(rule);
+		}
+
+		/**
+		 * 規則のサブルーチンの本体を生成する
+		 */
+		private void body(Rule rule) {
+			List<Rule> rules = rule.rules();
+			switch(rule.kind()) {
+			case SEQUENCE:
+				for(Rule r : rules) {
+					expression(r);
+				}
+				return;
+			case CHOICE: {
+				Rule.Literals literals = grammar.literals((Rule.Choice) rule);
+				if(literals != null) {
+					expression(literals);
+					// 解釈実行と同じく，全ての選択肢の終端記号を記録する
+					Rule.RuleWithDescription[][] firstTerms = grammar.expectedTerms((Rule.Choice) rule);
+					if(firstTerms != null) {
+						expected[size - 2] = Arrays.stream(firstTerms)
+								.flatMap(Arrays::stream)
+								.distinct()
+								.toArray(Rule.RuleWithDescription[]::new);
+					}
+					return;
+				}
+				// CHOICE next; 選択肢; COMMIT end; next: ...
+				int[] commits = new int[rules.size() - 1];
+				for (int i = 0; i < rules.size() - 1; i++) {
+					int choice = emit(CHOICE, -1);
+					expression(rules.get(i));
+					commits[i] = emit(COMMIT, -1);
+					code[choice + 1] = size;
+				}
+				expression(rules.get(rules.size() - 1));
+				for(int commit : commits) {
+					code[commit + 1] = size;
+				}
+				return;
+			}
+			case PLUS:
+				if(rules.get(0) instanceof Rule.PredicatedChar) {
+					span((Rule.PredicatedChar) rules.get(0), 1);
+					return;
+				}
+				expression(rules.get(0));
+				loop(rules.get(0));
+				return;
+			case STAR:
+				if(rules.get(0) instanceof Rule.PredicatedChar) {
+					span((Rule.PredicatedChar) rules.get(0), 0);
+					return;
+				}
+				loop(rules.get(0));
+				return;
+			case OPTION: {
+				// CHOICE end; 本体; COMMIT end; end:
+				int choice = emit(CHOICE, -1);
+				expression(rules.get(0));
+				int commit = emit(COMMIT, -1);
+				code[choice + 1] = size;
+				code[commit + 1] = size;
+				return;
+			}
+			case AND_PREDICATE: {
+				// CHOICE fail; 本体; BACK_COMMIT end; fail: FAIL; end:
+				int choice = emit(CHOICE, -1);
+				expression(rules.get(0));
+				int commit = emit(BACK_COMMIT, -1);
+				code[choice + 1] = size;
+				emit(FAIL);
+				code[commit + 1] = size;
+				return;
+			}
+			case NOT_PREDICATE: {
+				// CHOICE end; 本体; FAIL_TWICE; end:
+				int choice = emit(CHOICE, -1);
+				expression(rules.get(0));
+				emit(FAIL_TWICE);
+				code[choice + 1] = size;
+				return;
+			}
+			default:
+				// 呼出し先で解釈実行する
+				emit(RULE, terms.size());
+				terms.add(rule);
+			}
+		}
+
+		/**
+		 * 0回以上の繰り返し: CHOICE end; loop: 本体; PARTIAL_COMMIT loop; end:
+		 */
+		private void loop(Rule rule) {
+			int choice = emit(CHOICE, -1);
+			int loop = size;
+			expression(rule);
+			emit(PARTIAL_COMMIT, loop);
+			code[choice + 1] = size;
+		}
+
+		private void span(Rule.PredicatedChar rule, int min) {
+			expect(emit(SPAN, predicates.size(), min), rule);
+			predicates.add(rule.predicate());
+		}
+
+		private void expect(int at, Rule.RuleWithDescription rule) {
+			expected[at] = new Rule.RuleWithDescription[] {rule};
+		}
+
+		private int emit(int op) {
+			ensure(1);
+			code[size] = op;
+			return size++;
+		}
+
+		private int emit(int op, int operand) {
+			int at = emit(op);
+			ensure(1);
+			code[size++] = operand;
+			return at;
+		}
+
+		private int emit(int op, int operand1, int operand2) {
+			int at = emit(op, operand1);
+			ensure(1);
+			code[size++] = operand2;
+			return at;
+		}
+
+		private void ensure(int n) {
+			if(size + n > code.length) {
+				code = Arrays.copyOf(code, code.length * 2);
+				expected = Arrays.copyOf(expected, code.length);
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.lethe_river.peg.type2;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 誤りを読み飛ばしながら読み取った記録の繰り返しの結果．
+ * 読み取れた記録と，読み飛ばした区間ごとの誤りを持つ
+ *
+ * @author YuyaAizawa
+ *
+ * @param <T> 記録の型
+ * @see Parser#parseAllRecovering(CharSequence, Parser)
+ */
+public final class Recovered<T> {
+	private final List<T> values;
+	private final List<SyntaxError> errors;
+
+	Recovered(List<T> values, List<SyntaxError> errors) {
+		this.values = Collections.unmodifiableList(values);
+		this.errors = Collections.unmodifiableList(errors);
+	}
+
+	/**
+	 * 読み取れた記録を出現順に返す
+	 * @return 記録のリスト
+	 */
+	public List<T> values() {
+		return values;
+	}
+
+	/**
+	 * 読み飛ばした区間の誤りを出現順に返す
+	 * @return 誤りのリスト，誤りがなければ空
+	 */
+	public List<SyntaxError> errors() {
+		return errors;
+	}
+
+	/**
+	 * 誤りがあったかどうかを返す
+	 * @return 読み飛ばした区間があればtrue
+	 */
+	public boolean hasErrors() {
+		return !errors.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "values: " + values.size() + ", errors: " + errors;
+	}
+
+	/**
+	 * 読み取れなかった記録．記録の開始位置から同期点までを読み飛ばした
+	 */
+	public static final class SyntaxError {
+		private final int start;
+		private final int end;
+		private final ParseException cause;
+
+		SyntaxError(int start, int end, ParseException cause) {
+			this.start = start;
+			this.end = end;
+			this.cause = cause;
+		}
+
+		/**
+		 * 読み飛ばした区間の開始位置を返す
+		 * @return 開始位置
+		 */
+		public int start() {
+			return start;
+		}
+
+		/**
+		 * 読み飛ばした区間の終了位置，すなわち読み取りを再開した位置を返す
+		 * @return 終了位置
+		 */
+		public int end() {
+			return end;
+		}
+
+		/**
+		 * 最も後ろで失敗した位置と期待した終端記号を持つ例外を返す
+		 * @return 例外
+		 */
+		public ParseException cause() {
+			return cause;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + start + ", " + end + "): " + cause.getMessage();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.lethe_river.peg.type2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 読み取れない記録を読み飛ばしながら，記録の繰り返しを読み取るパーサ.
+ *
+ * 記録の読み取りに失敗した場合は，最も後ろの失敗を誤りとして記録し，
+ * 記録の開始位置から同期点の規則が受理される位置を探してその直後から読み取りを再開する．
+ * 記録の読み取りで調べた範囲と同期点を探す範囲はいずれも次の開始位置より前にあるため，入力を1回の走査で読み取る．
+ *
+ * @author YuyaAizawa
+ *
+ * @param <T> 記録の型
+ */
+final class RecoveringParser<T> {
+	private final Parser<T> record;
+	private final Parser<?> sync;
+
+	RecoveringParser(Parser<T> record, Parser<?> sync) {
+		this.record = record;
+		this.sync = sync;
+	}
+
+	@SuppressWarnings("unchecked")
+	Recovered<T> parse(CharSequence input) {
+		Source src = Source.from(input);
+		Memo memo = record.newMemo();
+		List<T> values = new ArrayList<>();
+		List<Recovered.SyntaxError> errors = new ArrayList<>();
+
+		int pos = 0;
+		while(pos < src.length()) {
+			// 前の記録には戻らない
+			memo.cut(pos);
+			memo.failures().clear();
+			src.jump(pos);
+			Object t = record.parseOrFailure(src, memo);
+			if(t != Parser.FAILURE && src.index() > pos) {
+				values.add((T) t);
+				pos = src.index();
+				continue;
+			}
+			ParseException cause = memo.failures().exception(pos);
+			int end = synchronize(src, pos);
+			errors.add(new Recovered.SyntaxError(pos, end, cause));
+			pos = end;
+		}
+		return new Recovered<>(values, errors);
+	}
+
+	/**
+	 * 指定した位置以降で最初に同期点が受理される位置の直後を返す．見つからなければ終端を返す
+	 */
+	private int synchronize(Source src, int from) {
+		Memo memo = Memo.noMemo(sync.grammar());
+		for (int pos = from; pos < src.length(); pos++) {
+			src.jump(pos);
+			if(sync.getRule().parse(src, memo) && src.index() > from) {
+				return src.index();
+			}
+		}
+		return src.length();
+	}
+}
@@ -1,9 +1,10 @@
 package com.lethe_river.peg.type2;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -28,7 +29,8 @@ public abstract class Rule {
 		PLUS,
 		OPTION,
 		AND_PREDICATE,
-		NOT_PREDICATE;
+		NOT_PREDICATE,
+		CUT;
 	}
 
 	/**
@@ -41,17 +43,28 @@ public abstract class Rule {
 	 * メモを利用して指定したソースをパースし結果を返す．
 	 * 成功した場合ソースの読み取り位置は進められる．
 	 * 失敗した場合の読み取り位置は未定義．
+	 * 左再帰する規則の役割はメモの文法から引く．文法を持たないメモでは左再帰する規則を読み取れない．
 	 * @param src ソース
 	 * @param memo メモ
 	 * @return 受理すればtrue
+	 * @see Memo#grammar()
 	 */
 	public final boolean parse(Source src, Memo memo) {
+		Grammar grammar = memo.grammar();
+		int leftRecursion = grammar == null ? Grammar.NOT_LEFT_RECURSIVE : grammar.leftRecursion(this);
+		if(leftRecursion == Grammar.LEFT_RECURSION_INVOLVED) {
+			// 成長途中の結果に依存するので記録しない
+			return eval(src, memo);
+		}
 		int start = src.index();
 		int r = memo.getEnd(this, start);
 		switch (r) {
 		case Memo.ERROR:
 			return false;
 		case Memo.NULL:
+			if(leftRecursion == Grammar.LEFT_RECURSION_HEAD) {
+				return grow(src, memo, start);
+			}
 			if(eval(src, memo)) {
 				memo.putEnd(this, start, src.index());
 				return true;
@@ -65,6 +78,30 @@ public abstract class Rule {
 		}
 	}
 
+	/**
+	 * 失敗を種として記録し，結果が伸びなくなるまで評価を繰り返す
+	 */
+	private boolean grow(Source src, Memo memo, int start) {
+		memo.putError(this, start);
+		if(memo.getEnd(this, start) != Memo.ERROR) {
+			throw new IllegalStateException("left recursion requires memo: <" + id + ">");
+		}
+		int end = Memo.ERROR;
+		while(true) {
+			src.jump(start);
+			if(!eval(src, memo) || src.index() <= end) {
+				break;
+			}
+			end = src.index();
+			memo.putEnd(this, start, end);
+		}
+		if(end == Memo.ERROR) {
+			return false;
+		}
+		src.jump(end);
+		return true;
+	}
+
 	/**
 	 * 指定したソースをパースし結果を返す．
 	 * 成功した場合ソースの読み取り位置は進められる．
@@ -139,8 +176,12 @@ public abstract class Rule {
 
 		@Override
 		public boolean eval(Source src, Memo memo) {
-			return rules.stream()
-					.allMatch(r -> r.parse(src, memo));
+			for (int i = 0; i < rules.size(); i++) {
+				if(!rules.get(i).parse(src, memo)) {
+					return false;
+				}
+			}
+			return true;
 		}
 
 		@Override
@@ -151,7 +192,12 @@ public abstract class Rule {
 
 	public static class Choice extends Rule {
 		private final List<Supplier<Rule>> ruleSuppliers;
+
+		/**
+		 * 解決済みの選択肢．不変リストなので同期せずに公開してよい
+		 */
 		private List<Rule> rules;
+
 		@SafeVarargs
 		public Choice(Supplier<Rule> first, Supplier<Rule>... rest) {
 			this(Stream.concat(
@@ -174,30 +220,77 @@ public abstract class Rule {
 
 		@Override
 		public boolean eval(Source src, Memo memo) {
-			lazyInit();
-			Iterator<Rule> i = rules.iterator();
-			while(i.hasNext()) {
-				int pos = src.index();
-				if(i.next().parse(src, memo)) {
+			Grammar grammar = memo.grammar();
+			Literals literals = grammar == null ? null : grammar.literals(this);
+			if(literals != null) {
+				if(literals.match(src) >= 0) {
 					return true;
 				}
+				failSkipped(src.index(), Literals.NO_CANDIDATES, memo);
+				return false;
+			}
+			List<Rule> rules = rules();
+			int[] candidates = candidates(src, memo);
+			int count = candidates == null ? rules.size() : candidates.length;
+			int pos = src.index();
+			for (int i = 0; i < count; i++) {
+				Rule rule = rules.get(candidates == null ? i : candidates[i]);
+				if(rule.parse(src, memo)) {
+					return true;
+				}
+				if(pos < memo.cutPosition()) {
+					return false;
+				}
 				src.jump(pos);
 			}
+			if(candidates != null) {
+				failSkipped(pos, candidates, memo);
+			}
 			return false;
 		}
 
-		@Override
-		List<Rule> rules() {
-			lazyInit();
-			return rules;
+		/**
+		 * 全ての選択肢が失敗したときに，メモの文法の表で試さなかった選択肢の終端記号を失敗として記録する
+		 * @param pos 選択の開始位置
+		 * @param candidates 表で引いた，試した選択肢の番号
+		 * @param memo メモ
+		 * @see Grammar#failSkipped(Choice, int, int[], Failures)
+		 */
+		void failSkipped(int pos, int[] candidates, Memo memo) {
+			Grammar grammar = memo.grammar();
+			if(grammar != null) {
+				grammar.failSkipped(this, pos, candidates, memo.failures());
+			}
+		}
+
+		/**
+		 * 読み取り位置で成功しうる選択肢の番号をメモの文法の表で引く．読み取り位置は変えない
+		 * @param src 読み取り位置のソース
+		 * @param memo メモ
+		 * @return 選択肢の番号，文法を持たないメモなど全ての選択肢を試す場合はnull
+		 * @see Grammar#candidates(Choice, Source)
+		 */
+		int[] candidates(Source src, Memo memo) {
+			Grammar grammar = memo.grammar();
+			return grammar == null ? null : grammar.candidates(this, src);
 		}
 
-		private void lazyInit() {
-			if(rules == null) {
-				rules = ruleSuppliers.stream()
+		@Override
+		List<Rule> rules() {
+			List<Rule> result = rules;
+			if(result == null) {
+				result = ruleSuppliers.stream()
 						.map(Supplier::get)
-						.collect(Collectors.toList());
+						.map(r -> {
+							if(r == null) {
+								throw new IllegalStateException("choice resolved to null");
+							}
+							return r;
+						})
+						.collect(Collectors.toUnmodifiableList());
+				rules = result;
 			}
+			return result;
 		}
 	}
 
@@ -214,10 +307,18 @@ public abstract class Rule {
 
 		@Override
 		public boolean eval(Source src, Memo memo) {
+			if(rule instanceof PredicatedChar) {
+				src.scanWhile(((PredicatedChar) rule).predicate());
+				memo.failures().fail((PredicatedChar) rule, src.index());
+				return true;
+			}
 			while(true) {
 				int pos = src.index();
 				boolean result = rule.parse(src, memo);
 				if(!result) {
+					if(pos < memo.cutPosition()) {
+						return false;
+					}
 					src.jump(pos);
 					return true;
 				}
@@ -243,6 +344,11 @@ public abstract class Rule {
 
 		@Override
 		public boolean eval(Source src, Memo memo) {
+			if(rule instanceof PredicatedChar) {
+				int count = src.scanWhile(((PredicatedChar) rule).predicate());
+				memo.failures().fail((PredicatedChar) rule, src.index());
+				return count > 0;
+			}
 			if(!rule.parse(src, memo)) {
 				return false;
 			}
@@ -250,6 +356,9 @@ public abstract class Rule {
 				int pos = src.index();
 				boolean result = rule.parse(src, memo);
 				if(!result) {
+					if(pos < memo.cutPosition()) {
+						return false;
+					}
 					src.jump(pos);
 					return true;
 				}
@@ -280,6 +389,9 @@ public abstract class Rule {
 			if(result) {
 				return true;
 			}
+			if(pos < memo.cutPosition()) {
+				return false;
+			}
 			src.jump(pos);
 			return true;
 		}
@@ -304,7 +416,7 @@ public abstract class Rule {
 		@Override
 		public boolean eval(Source src, Memo memo) {
 			int pos = src.index();
-			boolean result = rule.parse(src, null);
+			boolean result = rule.parse(src, memo);
 			src.jump(pos);
 			return result;
 		}
@@ -340,6 +452,43 @@ public abstract class Rule {
 		}
 	}
 
+	/**
+	 * 何も読み取らずに成功し，以降の解析が現在の位置より前に戻らないことを宣言する規則．
+	 *
+	 * 切断を通過した後に失敗した選択や繰り返しは，
+	 * 切断より前の位置から別の選択肢を試さずに失敗する．
+	 * メモは切断より前の位置の記録を，ソースは切断より前の内容を捨ててよい．
+	 * 先読みの中で使ってはならない．
+	 * 受理判定の後で同じ位置から結果オブジェクトを生成し直すことはできないため，
+	 * 切断を含むパーサは{@link Parser#parse(Source, Memo)}でも1回の走査で読み取る．
+	 *
+	 * @author YuyaAizawa
+	 */
+	public static class Cut extends RuleWithDescription {
+
+		@Override
+		Kind kind() {
+			return Kind.CUT;
+		}
+
+		@Override
+		public boolean eval(Source src, Memo memo) {
+			memo.cut(src.index());
+			src.release(src.index());
+			return true;
+		}
+
+		@Override
+		List<Rule> rules() {
+			return List.of();
+		}
+
+		@Override
+		public void description(StringBuilder sb) {
+			sb.append('↑');
+		}
+	}
+
 	static abstract class RuleWithDescription extends Rule {
 		public abstract void description(StringBuilder sb);
 		public final String description() {
@@ -356,6 +505,14 @@ public abstract class Rule {
 			this.str = str;
 		}
 
+		/**
+		 * 受理する文字列を返す
+		 * @return 文字列
+		 */
+		String string() {
+			return str;
+		}
+
 		@Override
 		Kind kind() {
 			return Kind.TERM;
@@ -363,16 +520,11 @@ public abstract class Rule {
 
 		@Override
 		public boolean eval(Source src, Memo memo) {
-			try {
-				for (int i = 0; i < str.length(); i++) {
-					if(str.charAt(i) != src.next()) {
-						return false;
-					}
-				}
+			if(src.regionMatches(str)) {
 				return true;
-			} catch(NoSuchElementException e) {
-				return false;
 			}
+			memo.failures().fail(this, src.index());
+			return false;
 		}
 
 		@Override
@@ -404,6 +556,14 @@ public abstract class Rule {
 			this.description = description;
 		}
 
+		/**
+		 * 受理する文字の条件を返す
+		 * @return 条件
+		 */
+		CharPredicate predicate() {
+			return predicate;
+		}
+
 		@Override
 		public void description(StringBuilder sb) {
 			sb.append(description);
@@ -416,16 +576,575 @@ public abstract class Rule {
 
 		@Override
 		public boolean eval(Source src, Memo memo) {
-			try {
-				return predicate.test(src.next());
-			} catch(NoSuchElementException e) {
+			int pos = src.index();
+			if(src.hasNext() && predicate.test(src.next())) {
+				return true;
+			}
+			memo.failures().fail(this, pos);
+			return false;
+		}
+
+		@Override
+		List<Rule> rules() {
+			return List.of();
+		}
+	}
+
+	/**
+	 * 文字の範囲の和で表される文字の集合を受理する規則.
+	 *
+	 * 集合は"[0-9a-fA-F_]"のような文字クラスの記法，範囲，文字の列挙から生成し，
+	 * 和と補集合により合成できる．
+	 * ASCIIの文字は128ビットの表で，それ以外の文字は整列した範囲の表で判定する．
+	 *
+	 * @author YuyaAizawa
+	 */
+	public static class CharClass extends PredicatedChar {
+		private static final char MAX = Character.MAX_VALUE;
+
+		/**
+		 * 整列し，重ならず隣接もしない閉区間の両端を交互に並べたもの
+		 */
+		private final int[] ranges;
+		private final Matcher matcher;
+
+		private CharClass(int[] ranges) {
+			this(ranges, new Matcher(ranges));
+		}
+
+		private CharClass(int[] ranges, Matcher matcher) {
+			super(matcher, render(ranges));
+			this.ranges = ranges;
+			this.matcher = matcher;
+		}
+
+		/**
+		 * 文字クラスの記法から規則を生成する.
+		 * 外側の"[]"は省略できる．"[^...]"は補集合を表す．
+		 * "a-z"は範囲を表し，"\\n"，"\\r"，"\\t"，"\\uXXXX"と，
+		 * "\\"に続く記号はその文字を表す．
+		 * @param spec 記法
+		 * @return 規則
+		 * @throws IllegalArgumentException 記法が不正な場合
+		 */
+		public static CharClass of(String spec) {
+			int i = 0;
+			int end = spec.length();
+			boolean negated = false;
+			if(end >= 2 && spec.charAt(0) == '[' && spec.charAt(end - 1) == ']') {
+				i++;
+				end--;
+				if(i < end && spec.charAt(i) == '^') {
+					negated = true;
+					i++;
+				}
+			}
+
+			int[] pairs = new int[(end - i) * 2];
+			int size = 0;
+			int[] cursor = {i};
+			while(cursor[0] < end) {
+				char from = unescape(spec, cursor, end);
+				char to = from;
+				if(cursor[0] + 1 < end && spec.charAt(cursor[0]) == '-') {
+					cursor[0]++;
+					to = unescape(spec, cursor, end);
+					if(to < from) {
+						throw new IllegalArgumentException("reversed range: " + spec);
+					}
+				}
+				pairs[size++] = from;
+				pairs[size++] = to;
+			}
+			CharClass result = new CharClass(normalize(Arrays.copyOf(pairs, size)));
+			return negated ? result.negate() : result;
+		}
+
+		/**
+		 * 指定した範囲の文字を受理する規則を生成する．範囲は境界を含む．
+		 * @param from 最初の文字
+		 * @param to 最後の文字
+		 * @return 規則
+		 * @throws IllegalArgumentException 範囲が逆転している場合
+		 */
+		public static CharClass range(char from, char to) {
+			if(to < from) {
+				throw new IllegalArgumentException();
+			}
+			return new CharClass(new int[] {from, to});
+		}
+
+		/**
+		 * 指定した文字のいずれかを受理する規則を生成する
+		 * @param chars 文字
+		 * @return 規則
+		 */
+		public static CharClass anyOf(String chars) {
+			int[] pairs = new int[chars.length() * 2];
+			for (int i = 0; i < chars.length(); i++) {
+				pairs[i * 2] = pairs[i * 2 + 1] = chars.charAt(i);
+			}
+			return new CharClass(normalize(pairs));
+		}
+
+		/**
+		 * この規則と指定した規則のいずれかが受理する文字を受理する規則を返す
+		 * @param other 規則
+		 * @return 規則
+		 */
+		public CharClass union(CharClass other) {
+			int[] pairs = Arrays.copyOf(ranges, ranges.length + other.ranges.length);
+			System.arraycopy(other.ranges, 0, pairs, ranges.length, other.ranges.length);
+			return new CharClass(normalize(pairs));
+		}
+
+		/**
+		 * この規則が受理しない文字を受理する規則を返す
+		 * @return 規則
+		 */
+		public CharClass negate() {
+			return new CharClass(complement(ranges));
+		}
+
+		/**
+		 * 文字を受理するかどうかを返す
+		 * @param c 文字
+		 * @return 受理するならtrue
+		 */
+		public boolean contains(char c) {
+			return matcher.test(c);
+		}
+
+		/**
+		 * 受理する文字の集合を，整列した閉区間の両端を交互に並べた配列で返す
+		 * @return 範囲
+		 */
+		public int[] ranges() {
+			return ranges.clone();
+		}
+
+		/**
+		 * 0から63までの文字の表
+		 */
+		long lowBits() {
+			return matcher.low;
+		}
+
+		/**
+		 * 64から127までの文字の表
+		 */
+		long highBits() {
+			return matcher.high;
+		}
+
+		/**
+		 * ASCII以外の文字を含むかどうか
+		 */
+		boolean hasNonAscii() {
+			return matcher.nonAscii.length > 0;
+		}
+
+		private static char unescape(String spec, int[] cursor, int end) {
+			char c = spec.charAt(cursor[0]++);
+			if(c != '\\') {
+				return c;
+			}
+			if(cursor[0] >= end) {
+				throw new IllegalArgumentException("dangling escape: " + spec);
+			}
+			c = spec.charAt(cursor[0]++);
+			switch(c) {
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				if(cursor[0] + 4 > end) {
+					throw new IllegalArgumentException("invalid escape: " + spec);
+				}
+				try {
+					char result = (char) Integer.parseInt(spec.substring(cursor[0], cursor[0] + 4), 16);
+					cursor[0] += 4;
+					return result;
+				} catch(NumberFormatException e) {
+					throw new IllegalArgumentException("invalid escape: " + spec);
+				}
+			default:
+				return c;
+			}
+		}
+
+		/**
+		 * 閉区間の両端を交互に並べた配列を整列し，重なりや隣接する区間をまとめる
+		 */
+		private static int[] normalize(int[] pairs) {
+			int n = pairs.length / 2;
+			long[] packed = new long[n];
+			for (int i = 0; i < n; i++) {
+				packed[i] = (long) pairs[i * 2] << 32 | pairs[i * 2 + 1];
+			}
+			Arrays.sort(packed);
+
+			int[] result = new int[pairs.length];
+			int size = 0;
+			for(long range : packed) {
+				int from = (int) (range >>> 32);
+				int to = (int) range;
+				if(size > 0 && from <= result[size - 1] + 1) {
+					result[size - 1] = Math.max(result[size - 1], to);
+				} else {
+					result[size++] = from;
+					result[size++] = to;
+				}
+			}
+			return Arrays.copyOf(result, size);
+		}
+
+		private static int[] complement(int[] ranges) {
+			int[] result = new int[ranges.length + 2];
+			int size = 0;
+			int next = 0;
+			for (int i = 0; i < ranges.length; i += 2) {
+				if(next < ranges[i]) {
+					result[size++] = next;
+					result[size++] = ranges[i] - 1;
+				}
+				next = ranges[i + 1] + 1;
+			}
+			if(next <= MAX) {
+				result[size++] = next;
+				result[size++] = MAX;
+			}
+			return Arrays.copyOf(result, size);
+		}
+
+		/**
+		 * 文字クラスの記法で表す．先頭と末尾の文字を含む場合は補集合で表す
+		 */
+		private static String render(int[] ranges) {
+			StringBuilder sb = new StringBuilder("[");
+			if(ranges.length > 0 && ranges[0] == 0 && ranges[ranges.length - 1] == MAX) {
+				sb.append('^');
+				ranges = complement(ranges);
+			}
+			for (int i = 0; i < ranges.length; i += 2) {
+				escape((char) ranges[i], sb);
+				if(ranges[i] == ranges[i + 1]) {
+					continue;
+				}
+				if(ranges[i] + 1 < ranges[i + 1]) {
+					sb.append('-');
+				}
+				escape((char) ranges[i + 1], sb);
+			}
+			return sb.append(']').toString();
+		}
+
+		private static void escape(char c, StringBuilder sb) {
+			switch(c) {
+			case '\n':
+				sb.append("\\n");
+				return;
+			case '\r':
+				sb.append("\\r");
+				return;
+			case '\t':
+				sb.append("\\t");
+				return;
+			case '\\':
+			case ']':
+			case '[':
+			case '-':
+			case '^':
+				sb.append('\\').append(c);
+				return;
+			default:
+				if(c < 0x20 || c == 0x7F || Character.isISOControl(c) || Character.isSurrogate(c)
+						|| !Character.isDefined(c)) {
+					sb.append(String.format("\\u%04X", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+
+		/**
+		 * ASCIIの文字は表を引き，それ以外の文字は範囲を二分探索する
+		 */
+		private static final class Matcher implements CharPredicate {
+			private final long low;
+			private final long high;
+
+			/**
+			 * ASCII以外の範囲
+			 */
+			private final int[] nonAscii;
+
+			Matcher(int[] ranges) {
+				long low = 0L;
+				long high = 0L;
+				int[] nonAscii = new int[ranges.length];
+				int size = 0;
+				for (int i = 0; i < ranges.length; i += 2) {
+					for (int c = ranges[i]; c <= Math.min(ranges[i + 1], 127); c++) {
+						if(c < 64) {
+							low |= 1L << c;
+						} else {
+							high |= 1L << (c - 64);
+						}
+					}
+					if(ranges[i + 1] >= 128) {
+						nonAscii[size++] = Math.max(ranges[i], 128);
+						nonAscii[size++] = ranges[i + 1];
+					}
+				}
+				this.low = low;
+				this.high = high;
+				this.nonAscii = Arrays.copyOf(nonAscii, size);
+			}
+
+			@Override
+			public boolean test(char c) {
+				if(c < 64) {
+					return (low & 1L << c) != 0;
+				}
+				if(c < 128) {
+					return (high & 1L << (c - 64)) != 0;
+				}
+				// 開始が c 以下である最後の範囲を探す
+				int lo = 0;
+				int hi = nonAscii.length / 2 - 1;
+				while(lo <= hi) {
+					int mid = (lo + hi) >>> 1;
+					if(nonAscii[mid * 2] <= c) {
+						if(c <= nonAscii[mid * 2 + 1]) {
+							return true;
+						}
+						lo = mid + 1;
+					} else {
+						hi = mid - 1;
+					}
+				}
 				return false;
 			}
 		}
+	}
+
+	/**
+	 * 文字列の集合のいずれかを受理する規則.
+	 *
+	 * 文字列の集合から木を構築し，入力を1度読み進めるだけで受理する文字列を決める．
+	 * 複数の文字列が続く場合は，最も長いものか，最初に列挙されたものを受理する．
+	 * 後者は同じ文字列の{@link FullMatch}の選択と同じ結果になる．
+	 *
+	 * @author YuyaAizawa
+	 */
+	public static class Literals extends RuleWithDescription {
+
+		/**
+		 * 複数の文字列が続く場合に受理する文字列
+		 */
+		public static enum Priority {
+			/**
+			 * 最も長い文字列
+			 */
+			LONGEST,
+
+			/**
+			 * 最初に列挙された文字列
+			 */
+			FIRST_LISTED;
+		}
+
+		private static final int[] NO_CANDIDATES = {};
+
+		private final List<String> literals;
+		private final Priority priority;
+
+		/**
+		 * 節点ごとの，整列した遷移の文字．節点0が根
+		 */
+		private final char[][] labels;
+
+		/**
+		 * 節点ごとの，遷移の文字に対応する遷移先の節点
+		 */
+		private final int[][] targets;
+
+		/**
+		 * 節点ごとの，その節点で終わる文字列の番号．なければ-1
+		 */
+		private final int[] accepts;
+
+		/**
+		 * 節点ごとの，遷移先で終わる文字列の最小の番号．なければ{@link Integer#MAX_VALUE}
+		 */
+		private final int[] minBelow;
+
+		/**
+		 * 番号ごとの，その番号のみを含む配列
+		 */
+		private final int[][] singletons;
+
+		/**
+		 * 文字列の集合のいずれかを受理する規則を生成する
+		 * @param priority 複数の文字列が続く場合に受理する文字列
+		 * @param literals 文字列
+		 * @throws IllegalArgumentException 文字列がない場合
+		 */
+		public Literals(Priority priority, List<String> literals) {
+			if(literals.isEmpty()) {
+				throw new IllegalArgumentException();
+			}
+			this.literals = List.copyOf(literals);
+			this.priority = priority;
+
+			List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+			List<Integer> accepts = new ArrayList<>();
+			edges.add(new TreeMap<>());
+			accepts.add(-1);
+			for (int i = 0; i < literals.size(); i++) {
+				int node = 0;
+				for(char c : literals.get(i).toCharArray()) {
+					Integer next = edges.get(node).get(c);
+					if(next == null) {
+						next = edges.size();
+						edges.get(node).put(c, next);
+						edges.add(new TreeMap<>());
+						accepts.add(-1);
+					}
+					node = next;
+				}
+				if(accepts.get(node) < 0) {
+					accepts.set(node, i);
+				}
+			}
+
+			int size = edges.size();
+			this.labels = new char[size][];
+			this.targets = new int[size][];
+			this.accepts = new int[size];
+			this.minBelow = new int[size];
+			for (int node = 0; node < size; node++) {
+				labels[node] = new char[edges.get(node).size()];
+				targets[node] = new int[edges.get(node).size()];
+				int k = 0;
+				for(Map.Entry<Character, Integer> e : edges.get(node).entrySet()) {
+					labels[node][k] = e.getKey();
+					targets[node][k] = e.getValue();
+					k++;
+				}
+				this.accepts[node] = accepts.get(node);
+			}
+			// 子は親より後ろの番号を持つので後ろから求める
+			for (int node = size - 1; node >= 0; node--) {
+				int min = Integer.MAX_VALUE;
+				for(int child : targets[node]) {
+					min = Math.min(min, Math.min(minBelow[child], this.accepts[child] < 0 ? Integer.MAX_VALUE : this.accepts[child]));
+				}
+				minBelow[node] = min;
+			}
+
+			this.singletons = new int[literals.size()][];
+			for (int i = 0; i < singletons.length; i++) {
+				singletons[i] = new int[] {i};
+			}
+		}
+
+		/**
+		 * 文字列の集合のいずれかを受理する規則を生成する
+		 * @param priority 複数の文字列が続く場合に受理する文字列
+		 * @param literals 文字列
+		 * @throws IllegalArgumentException 文字列がない場合
+		 */
+		public Literals(Priority priority, String... literals) {
+			this(priority, List.of(literals));
+		}
+
+		/**
+		 * 受理する文字列を返す
+		 * @return 文字列
+		 */
+		public List<String> literals() {
+			return literals;
+		}
+
+		@Override
+		Kind kind() {
+			return Kind.TERM;
+		}
+
+		@Override
+		public boolean eval(Source src, Memo memo) {
+			if(match(src) >= 0) {
+				return true;
+			}
+			memo.failures().fail(this, src.index());
+			return false;
+		}
+
+		/**
+		 * 読み取り位置から続く文字列を探し，その後ろまで読み取り位置を進める．
+		 * 見つからない場合は読み取り位置を変えない．
+		 * @param src ソース
+		 * @return 見つけた文字列の番号，なければ-1
+		 */
+		int match(Source src) {
+			int start = src.index();
+			int node = 0;
+			int best = accepts[0];
+			int bestEnd = start;
+			while(src.hasNext()) {
+				if(priority == Priority.FIRST_LISTED && best >= 0 && best < minBelow[node]) {
+					break;
+				}
+				int k = Arrays.binarySearch(labels[node], src.next());
+				if(k < 0) {
+					break;
+				}
+				node = targets[node][k];
+				int accept = accepts[node];
+				if(accept >= 0 && (best < 0 || priority == Priority.LONGEST || accept < best)) {
+					best = accept;
+					bestEnd = src.index();
+				}
+			}
+			src.jump(best >= 0 ? bestEnd : start);
+			return best;
+		}
+
+		/**
+		 * 読み取り位置から続く文字列の番号のみを含む配列を返す．読み取り位置は変えない
+		 * @param src ソース
+		 * @return 番号の配列，見つからない場合は空の配列
+		 */
+		int[] candidates(Source src) {
+			int start = src.index();
+			int index = match(src);
+			src.jump(start);
+			return index < 0 ? NO_CANDIDATES : singletons[index];
+		}
 
 		@Override
 		List<Rule> rules() {
 			return List.of();
 		}
+
+		@Override
+		public void description(StringBuilder sb) {
+			if(priority == Priority.LONGEST) {
+				sb.append("longest");
+			}
+			sb.append('(');
+			for (int i = 0; i < literals.size(); i++) {
+				if(i > 0) {
+					sb.append('/');
+				}
+				sb.append('"').append(literals.get(i)).append('"');
+			}
+			sb.append(')');
+		}
 	}
 }
@@ -50,7 +50,7 @@ public class RuleAnalyzer {
 			target.rules()
 					.stream()
 					.map(r -> EXPAND_RULE.contains(r.kind()) ? r.rules().get(0) : r)
-					.filter(r -> ruleNames.containsKey(r) || (r.kind() != Kind.TERM && !EXPAND_RULE.contains(r.kind())))
+					.filter(r -> ruleNames.containsKey(r) || (r.kind() != Kind.TERM && r.kind() != Kind.CUT && !EXPAND_RULE.contains(r.kind())))
 //					.filter(r -> ruleNames.containsKey(r) || r.kind() != Kind.TERM)
 					.filter(r -> !analyzed.contains(r))
 					.filter(r -> !toAnalyze.contains(r))
@@ -97,6 +97,17 @@ public class RuleAnalyzer {
 		System.out.print(sb.toString());
 	}
 
+	/**
+	 * 規則を右辺と同じ表記で返す．名前を付けた規則は名前で表す
+	 * @param rule 規則
+	 * @return 表記
+	 */
+	String nameOf(Rule rule) {
+		StringBuilder sb = new StringBuilder();
+		appendAsRhs(rule, sb);
+		return sb.toString();
+	}
+
 	private void appendAsLhs(Rule rule, StringBuilder sb) {
 		sb.append('<')
 		  .append(ruleNames.getOrDefault(
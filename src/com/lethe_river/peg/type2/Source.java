@@ -1,10 +1,17 @@
 package com.lethe_river.peg.type2;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.NoSuchElementException;
-import java.util.PrimitiveIterator.OfInt;
 
-import com.lethe_river.util.primitive.collection.ArrayIntList;
+import com.lethe_river.util.primitive.function.CharPredicate;
 
 /**
  * Parserが読み取るためのデータ
@@ -14,8 +21,14 @@ import com.lethe_river.util.primitive.collection.ArrayIntList;
  */
 public interface Source {
 
+	/**
+	 * {@link #peek()}が終端で返す値
+	 */
+	int END = -1;
+
 	/**
 	 * このソースの大きさを返す．
+	 * ストリームから読み込むソースでは，終端に達するまでは読み込み済みの大きさを返す．
 	 * @return このソースの大きさ
 	 */
 	int length();
@@ -33,6 +46,75 @@ public interface Source {
 	 */
 	char next();
 
+	/**
+	 * このソースの現在の読み取り位置の文字を読み取り位置を進めずに返す．
+	 * @return 文字，終端では{@link #END}
+	 */
+	default int peek() {
+		if(!hasNext()) {
+			return END;
+		}
+		int start = index();
+		char c = next();
+		jump(start);
+		return c;
+	}
+
+	/**
+	 * このソースの現在の読み取り位置から指定した文字列が続くかどうかを返す．
+	 * 続く場合は読み取り位置を文字列の後ろに進め，続かない場合は読み取り位置を変えない．
+	 * @param str 文字列
+	 * @return 続けばtrue
+	 */
+	default boolean regionMatches(String str) {
+		int start = index();
+		for (int i = 0; i < str.length(); i++) {
+			if(!hasNext() || str.charAt(i) != next()) {
+				jump(start);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * このソースの現在の読み取り位置から条件を満たす文字が続く間読み取り位置を進める．
+	 * @param predicate 条件
+	 * @return 進めた文字数
+	 */
+	default int scanWhile(CharPredicate predicate) {
+		int count = 0;
+		while(hasNext()) {
+			int pos = index();
+			if(!predicate.test(next())) {
+				jump(pos);
+				break;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * このソースの現在の読み取り位置以降で最初に指定した文字が現れる位置を返す．
+	 * 読み取り位置は変えない．
+	 * @param c 文字
+	 * @return 位置，現れなければ-1
+	 */
+	default int indexOf(char c) {
+		int start = index();
+		int result = -1;
+		while(hasNext()) {
+			int pos = index();
+			if(next() == c) {
+				result = pos;
+				break;
+			}
+		}
+		jump(start);
+		return result;
+	}
+
 	/**
 	 * このソースの現在の読み取り位置を返す．
 	 * @return 現在の読み取り位置
@@ -45,6 +127,26 @@ public interface Source {
 	 */
 	int lineNum();
 
+	/**
+	 * このソースの現在の読み取り位置の列番号を返す.
+	 * 列番号は行頭からの文字数に1を加えた値．
+	 * 既定の実装は先頭からの文字列を生成して行頭を探す．
+	 * @return 現在の読み取り位置の列番号(1-based)
+	 */
+	default int columnNum() {
+		int index = index();
+		String head = makeString(0, Math.min(index + 1, length()));
+		int lineStart = 0;
+		for (int i = index - 1; i >= 0; i--) {
+			char c = head.charAt(i);
+			if(c == '\n' || c == '\r' && (i + 1 >= head.length() || head.charAt(i + 1) != '\n')) {
+				lineStart = i + 1;
+				break;
+			}
+		}
+		return index - lineStart + 1;
+	}
+
 	/**
 	 * このソースの読み取り位置を指定する.
 	 * @param index インデックス
@@ -61,71 +163,205 @@ public interface Source {
 	String makeString(int from, int to);
 
 	/**
-	 * 指定した文字列をもとにソースを生成する
+	 * 同じ内容を共有し，読み取り位置のみ独立したソースを返す．
+	 * 返されるソースの読み取り位置はこのソースの現在の読み取り位置．
+	 * 既定の実装は複製できないものとして例外を投げる．
+	 * @return ソース
+	 * @throws UnsupportedOperationException ストリームから読み込むソースなど，複製できない場合
+	 */
+	default Source duplicate() {
+		throw new UnsupportedOperationException("source cannot be duplicated");
+	}
+
+	/**
+	 * 指定した位置より前には戻らないことを通知する．
+	 * ストリームから読み込むソースはそれより前の内容を捨ててよい．
+	 * @param index 位置
+	 */
+	default void release(int index) {
+		// do nothing
+	}
+
+	/**
+	 * 指定した文字列をもとにソースを生成する.
+	 * StringとCharBufferは複製せずに読み取る．
+	 * その他の文字列は生成時の内容を複製する．
 	 * @param src
 	 * @return 生成した文字列
 	 */
 	public static Source from(CharSequence src) {
-		return new ArraySource(src);
+		if(src instanceof String) {
+			return new StringSource((String) src);
+		}
+		if(src instanceof CharBuffer) {
+			return from((CharBuffer) src);
+		}
+		return new StringSource(src.toString());
+	}
+
+	/**
+	 * バッファの現在位置から上限までを複製せずに読み取るソースを生成する.
+	 * ソースの位置はバッファの現在位置からの相対位置となる．
+	 * 読み取り中にバッファの内容を変更してはならない．
+	 * @param src バッファ
+	 * @return 生成したソース
+	 */
+	public static Source from(CharBuffer src) {
+		if(src.hasArray()) {
+			return new ArraySource(src.array(), src.arrayOffset() + src.position(), src.remaining());
+		}
+		return new CharBufferSource(src);
+	}
+
+	/**
+	 * 配列を複製せずに読み取るソースを生成する.
+	 * 読み取り中に配列の内容を変更してはならない．
+	 * @param src 配列
+	 * @return 生成したソース
+	 */
+	public static Source from(char[] src) {
+		return new ArraySource(src, 0, src.length);
+	}
+
+	/**
+	 * 配列の一部を複製せずに読み取るソースを生成する.
+	 * ソースの位置は指定した開始位置からの相対位置となる．
+	 * 読み取り中に配列の内容を変更してはならない．
+	 * @param src 配列
+	 * @param offset 開始位置
+	 * @param length 長さ
+	 * @return 生成したソース
+	 * @throws IndexOutOfBoundsException 範囲が配列に収まらない場合
+	 */
+	public static Source from(char[] src, int offset, int length) {
+		return new ArraySource(src, offset, length);
+	}
+
+	/**
+	 * Readerから必要な分だけ読み込むソースを生成する.
+	 * 内容は{@link #release(int)}で解放されるまで保持する．
+	 * 終端に達するとReaderを閉じる．
+	 * 生成したソースは{@link #duplicate()}で複製できない．
+	 * @param reader Reader
+	 * @return 生成したソース
+	 */
+	public static Source from(Reader reader) {
+		return new StreamingSource(reader);
+	}
+
+	/**
+	 * チャネルから必要な分だけ読み込むソースを生成する.
+	 * @param channel チャネル
+	 * @param charset 文字コード
+	 * @return 生成したソース
+	 * @see #from(Reader)
+	 */
+	public static Source from(ReadableByteChannel channel, Charset charset) {
+		return from(Channels.newReader(channel, charset));
+	}
+
+	/**
+	 * ファイルをメモリに写像したソースを生成する.
+	 * US-ASCII，ISO-8859-1，UTF-8のファイルは読み込まずに直接読み取る．
+	 * このとき位置はファイル先頭からのバイト数となる．
+	 * その他の文字コードのファイルは全て読み込む．
+	 * @param path ファイル
+	 * @param charset 文字コード
+	 * @return 生成したソース
+	 * @throws IOException ファイルを読み取れない場合
+	 * @throws IllegalArgumentException ファイルが2GB以上の場合
+	 */
+	public static Source map(Path path, Charset charset) throws IOException {
+		if(charset.equals(StandardCharsets.UTF_8)) {
+			return MappedSource.map(path, true);
+		}
+		if(charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.US_ASCII)) {
+			return MappedSource.map(path, false);
+		}
+		return from(Files.readString(path, charset));
 	}
 
 	static class ArraySource implements Source {
 		final char[] chars;
-		final  int[] breakIndexes;
+		final int offset;
+		final int length;
+		final LineIndex lines;
 		int pos = 0;
 
-		ArraySource(CharSequence src) {
-
-			try {
-				chars = new char[src.length()];
-				OfInt itr = src.chars().iterator();
-				for (int i = 0; i < chars.length; i++) {
-					chars[i] = (char)itr.nextInt();
-				}
-			} catch(NoSuchElementException e) {
-				throw new Error(e);
-			}
-
+		private ArraySource(ArraySource original) {
+			this.chars = original.chars;
+			this.offset = original.offset;
+			this.length = original.length;
+			this.lines = original.lines;
+			this.pos = original.pos;
+		}
 
-			final int CR = 0x0D;
-			final int LF = 0x0A;
-			ArrayIntList brs = new ArrayIntList();
-			for (int i = 0; i < chars.length; i++) {
-				if(chars[i] == LF) {
-					brs.add(i);
-					continue;
-				}
-				if(chars[i] == CR) {
-					if(i+1 < chars.length && chars[i+1] == LF) {
-						brs.add(i+1);
-						i++;
-						continue;
-					} else {
-						brs.add(i);
-						continue;
-					}
-				}
+		ArraySource(char[] chars, int offset, int length) {
+			if(offset < 0 || length < 0 || chars.length - offset < length) {
+				throw new IndexOutOfBoundsException("offset: "+offset+", length: "+length);
 			}
-			breakIndexes = brs.toArray();
+			this.chars = chars;
+			this.offset = offset;
+			this.length = length;
+			this.lines = new LineIndex(CharBuffer.wrap(chars, offset, length).slice());
 		}
 
 		@Override
 		public int length() {
-			return chars.length;
+			return length;
 		}
 
 		@Override
 		public boolean hasNext() {
-			return pos < chars.length;
+			return pos < length;
 		}
 
 		@Override
 		public char next() {
-			try {
-				return chars[pos++];
-			} catch(IndexOutOfBoundsException e) {
+			if(pos >= length) {
 				throw new NoSuchElementException();
 			}
+			return chars[offset + pos++];
+		}
+
+		@Override
+		public int peek() {
+			return pos < length ? chars[offset + pos] : END;
+		}
+
+		@Override
+		public boolean regionMatches(String str) {
+			int n = str.length();
+			if(length - pos < n) {
+				return false;
+			}
+			int base = offset + pos;
+			for (int i = 0; i < n; i++) {
+				if(chars[base + i] != str.charAt(i)) {
+					return false;
+				}
+			}
+			pos += n;
+			return true;
+		}
+
+		@Override
+		public int scanWhile(CharPredicate predicate) {
+			int start = pos;
+			while(pos < length && predicate.test(chars[offset + pos])) {
+				pos++;
+			}
+			return pos - start;
+		}
+
+		@Override
+		public int indexOf(char c) {
+			for (int i = pos; i < length; i++) {
+				if(chars[offset + i] == c) {
+					return i;
+				}
+			}
+			return -1;
 		}
 
 		@Override
@@ -135,27 +371,30 @@ public interface Source {
 
 		@Override
 		public int lineNum() {
-			int idx = Arrays.binarySearch(breakIndexes, pos);
-			if(idx >= 0) {
-				// on break
-				return idx + 1;
-			} else {
-				// otherwise
-				return -idx;
-			}
+			return lines.lineNum(pos);
+		}
+
+		@Override
+		public int columnNum() {
+			return lines.columnNum(pos);
 		}
 
 		@Override
 		public void jump(int index) {
-			if(index < 0 || chars.length < index) {
-				throw new IndexOutOfBoundsException("index: "+index+", length: "+chars.length);
+			if(index < 0 || length < index) {
+				throw new IndexOutOfBoundsException("index: "+index+", length: "+length);
 			}
 			pos = index;
 		}
 
 		@Override
 		public String makeString(int from, int to) {
-			return new String(chars, from, to - from);
+			return new String(chars, offset + from, to - from);
+		}
+
+		@Override
+		public Source duplicate() {
+			return new ArraySource(this);
 		}
 	}
 }
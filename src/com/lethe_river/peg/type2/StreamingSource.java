@@ -0,0 +1,286 @@
+package com.lethe_river.peg.type2;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import com.lethe_river.util.primitive.function.CharPredicate;
+
+/**
+ * Readerから必要な分だけ読み込むソース.
+ *
+ * 読み込んだ文字は解放された位置より後ろの分だけを緩衝領域に保持する．
+ * 緩衝領域は解放されない限り伸び続けるため，
+ * 大きな入力は切断を含む文法で読み取る．切断を含む文法は{@link Parser#parse(Source)}でも1回の走査で読み取る．
+ * 終端に達するまでの{@link #length()}は読み込み済みの大きさを返す．
+ * Readerの読み込み位置は1つなので，読み取り位置の独立した複製は作れない．
+ *
+ * @author YuyaAizawa
+ */
+final class StreamingSource implements Source {
+	private static final int INITIAL_CAPACITY = 1 << 13;
+	private static final char CR = 0x0D;
+	private static final char LF = 0x0A;
+
+	private final Reader reader;
+	private char[] buffer = new char[INITIAL_CAPACITY];
+
+	/**
+	 * 緩衝領域の先頭の文字の位置
+	 */
+	private int base = 0;
+
+	/**
+	 * 緩衝領域内の読み込み済みの文字数
+	 */
+	private int limit = 0;
+
+	/**
+	 * これより前の位置には戻れない
+	 */
+	private int released = 0;
+
+	/**
+	 * 緩衝領域より前の改行の数
+	 */
+	private int releasedBreaks = 0;
+
+	/**
+	 * 緩衝領域より前にある最後の行頭の位置
+	 */
+	private int releasedLineStart = 0;
+
+	/**
+	 * 直前に行番号と列番号を求めた位置
+	 */
+	private int cursorPos = 0;
+
+	/**
+	 * 緩衝領域の先頭から{@link #cursorPos}までの改行の数
+	 */
+	private int cursorBreaks = 0;
+
+	/**
+	 * {@link #cursorPos}を含む行の行頭の位置
+	 */
+	private int cursorLineStart = 0;
+
+	private boolean eof = false;
+	private int pos = 0;
+
+	StreamingSource(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * 緩衝領域に続きを読み込む
+	 * @return 1文字以上読み込めればtrue
+	 */
+	private boolean fill() {
+		if(eof) {
+			return false;
+		}
+		if(limit == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		try {
+			int n;
+			do {
+				n = reader.read(buffer, limit, buffer.length - limit);
+			} while(n == 0);
+			if(n < 0) {
+				eof = true;
+				reader.close();
+				return false;
+			}
+			limit += n;
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * 指定した位置の直前までを読み込む
+	 * @return 読み込めればtrue
+	 */
+	private boolean fillTo(int index) {
+		while(base + limit < index) {
+			if(!fill()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int length() {
+		return base + limit;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return pos < base + limit || fill();
+	}
+
+	@Override
+	public char next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return buffer[pos++ - base];
+	}
+
+	@Override
+	public int peek() {
+		return hasNext() ? buffer[pos - base] : END;
+	}
+
+	@Override
+	public boolean regionMatches(String str) {
+		int n = str.length();
+		if(!fillTo(pos + n)) {
+			return false;
+		}
+		int offset = pos - base;
+		for (int i = 0; i < n; i++) {
+			if(buffer[offset + i] != str.charAt(i)) {
+				return false;
+			}
+		}
+		pos += n;
+		return true;
+	}
+
+	@Override
+	public int scanWhile(CharPredicate predicate) {
+		int start = pos;
+		while(hasNext() && predicate.test(buffer[pos - base])) {
+			pos++;
+		}
+		return pos - start;
+	}
+
+	@Override
+	public int indexOf(char c) {
+		for (int i = pos; i < base + limit || fill(); i++) {
+			if(buffer[i - base] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int index() {
+		return pos;
+	}
+
+	@Override
+	public int lineNum() {
+		moveCursor(pos);
+		return releasedBreaks + cursorBreaks + 1;
+	}
+
+	@Override
+	public int columnNum() {
+		moveCursor(pos);
+		return pos - cursorLineStart + 1;
+	}
+
+	/**
+	 * 直前に求めた位置から指定した位置までの改行だけを数えて，行番号と列番号を求める位置を移す．
+	 * 位置の順に求める場合は読み取った文字数に比例する時間となる．
+	 */
+	private void moveCursor(int index) {
+		if(cursorPos <= index) {
+			for (int i = cursorPos; i < index; i++) {
+				if(isBreak(i)) {
+					cursorBreaks++;
+					cursorLineStart = i + 1;
+				}
+			}
+		} else {
+			for (int i = cursorPos - 1; i >= index; i--) {
+				if(isBreak(i)) {
+					cursorBreaks--;
+				}
+			}
+			if(cursorLineStart > index) {
+				cursorLineStart = lineStart(index);
+			}
+		}
+		cursorPos = index;
+	}
+
+	/**
+	 * 指定した位置を含む行の行頭の位置を返す．
+	 * 緩衝領域内に行頭がなければ緩衝領域より前の最後の行頭を返す．
+	 */
+	private int lineStart(int index) {
+		for (int i = index - 1; i >= base; i--) {
+			if(isBreak(i)) {
+				return i + 1;
+			}
+		}
+		return releasedLineStart;
+	}
+
+	/**
+	 * 緩衝領域内の指定した位置の文字が改行かどうかを返す．
+	 * CRLFはLFの位置だけを改行とする．
+	 */
+	private boolean isBreak(int index) {
+		char c = buffer[index - base];
+		return c == LF || c == CR && !(fillTo(index + 2) && buffer[index + 1 - base] == LF);
+	}
+
+	@Override
+	public void jump(int index) {
+		if(index < released || !fillTo(index)) {
+			throw new IndexOutOfBoundsException("index: "+index+", released: "+released+", length: "+length());
+		}
+		pos = index;
+	}
+
+	@Override
+	public String makeString(int from, int to) {
+		if(from < released || !fillTo(to)) {
+			throw new IndexOutOfBoundsException("from: "+from+", to: "+to+", released: "+released);
+		}
+		return new String(buffer, from - base, to - from);
+	}
+
+	/**
+	 * 複製できない
+	 * @throws UnsupportedOperationException 常に
+	 */
+	@Override
+	public Source duplicate() {
+		throw new UnsupportedOperationException("streaming source cannot be duplicated");
+	}
+
+	@Override
+	public void release(int index) {
+		if(index <= released || base + limit < index) {
+			return;
+		}
+		released = index;
+
+		// 直前のCRの改行を判定できるよう1文字残す
+		int newBase = index - 1;
+		int shift = newBase - base;
+		if(shift < buffer.length / 2) {
+			return;
+		}
+		moveCursor(newBase);
+		releasedBreaks += cursorBreaks;
+		releasedLineStart = cursorLineStart;
+		cursorBreaks = 0;
+		System.arraycopy(buffer, shift, buffer, 0, limit - shift);
+		limit -= shift;
+		base = newBase;
+	}
+}
@@ -0,0 +1,107 @@
+package com.lethe_river.peg.type2;
+
+import java.util.NoSuchElementException;
+
+import com.lethe_river.util.primitive.function.CharPredicate;
+
+/**
+ * 文字列を複製せずに読み取るソース
+ *
+ * @author YuyaAizawa
+ */
+final class StringSource implements Source {
+	private final String string;
+	private final LineIndex lines;
+	private int pos = 0;
+
+	StringSource(String string) {
+		this(string, new LineIndex(string));
+	}
+
+	private StringSource(String string, LineIndex lines) {
+		this.string = string;
+		this.lines = lines;
+	}
+
+	@Override
+	public int length() {
+		return string.length();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return pos < string.length();
+	}
+
+	@Override
+	public char next() {
+		if(pos >= string.length()) {
+			throw new NoSuchElementException();
+		}
+		return string.charAt(pos++);
+	}
+
+	@Override
+	public int peek() {
+		return pos < string.length() ? string.charAt(pos) : END;
+	}
+
+	@Override
+	public boolean regionMatches(String str) {
+		if(!string.startsWith(str, pos)) {
+			return false;
+		}
+		pos += str.length();
+		return true;
+	}
+
+	@Override
+	public int scanWhile(CharPredicate predicate) {
+		int start = pos;
+		int length = string.length();
+		while(pos < length && predicate.test(string.charAt(pos))) {
+			pos++;
+		}
+		return pos - start;
+	}
+
+	@Override
+	public int indexOf(char c) {
+		return string.indexOf(c, pos);
+	}
+
+	@Override
+	public int index() {
+		return pos;
+	}
+
+	@Override
+	public int lineNum() {
+		return lines.lineNum(pos);
+	}
+
+	@Override
+	public int columnNum() {
+		return lines.columnNum(pos);
+	}
+
+	@Override
+	public void jump(int index) {
+		if(index < 0 || string.length() < index) {
+			throw new IndexOutOfBoundsException("index: "+index+", length: "+string.length());
+		}
+		pos = index;
+	}
+
+	@Override
+	public String makeString(int from, int to) {
+		return string.substring(from, to);
+	}
+
+	@Override
+	public Source duplicate() {
+		StringSource duplicate = new StringSource(string, lines);
+		duplicate.pos = pos;
+		return duplicate;
+	}
+}
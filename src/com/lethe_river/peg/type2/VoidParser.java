@@ -17,6 +17,11 @@ public final class VoidParser extends Parser<Void> {
 		return null;
 	}
 
+	@Override
+	Object apply(Source src, Memo memo) {
+		return getRule().parse(src, memo) ? null : FAILURE;
+	}
+
 	public <T> Parser<T> then(Parser<T> following) {
 		return super.then(following, (p, f) -> f);
 	}
@@ -0,0 +1,79 @@
+package com.lethe_river.peg.type2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.lethe_river.peg.type2.GrammarCompiler.CompiledRule;
+
+public class GrammarCompilerTest {
+
+	@Test
+	public void sameAsInterpretedTest() {
+		LambdaExpressionRule rules = new LambdaExpressionRule();
+		Rule exp = rules.exp;
+		CompiledRule compiled = GrammarCompiler.compile(exp);
+
+		for(String str : List.of(
+				"x",
+				"λx.x",
+				"(λf.ff)x",
+				"(λx.(λy.(λz.((x)(y))((y)(z)))))",
+				"λxyz.xy(yz)",
+				"",
+				"(",
+				"λ.x",
+				"(x")) {
+			Source interpretedSrc = Source.from(str);
+			boolean interpreted = exp.parse(interpretedSrc, Memo.fullMemo());
+
+			Source compiledSrc = Source.from(str);
+			boolean actual = compiled.parse(compiledSrc, Memo.fullMemo());
+
+			assertEquals(interpreted, actual);
+			if(interpreted) {
+				assertEquals(interpretedSrc.index(), compiledSrc.index());
+			}
+		}
+	}
+
+	@Test
+	public void leftRecursionTest() {
+		// a ::= a "x" / "a"
+		Rule[] a = new Rule[1];
+		a[0] = new Rule.Choice(
+				() -> new Rule.Sequence(a[0], new Rule.FullMatch("x")),
+				() -> new Rule.FullMatch("a"));
+		CompiledRule compiled = GrammarCompiler.compile(a[0]);
+
+		for(String str : List.of("a", "axx", "axxy", "x", "")) {
+			Source interpretedSrc = Source.from(str);
+			boolean interpreted = a[0].parse(interpretedSrc, Memo.fullMemo(Grammar.of(a[0])));
+
+			// 文法を持たないメモでも，コンパイル時に求めた左再帰の役割で読み取る
+			Source compiledSrc = Source.from(str);
+			boolean actual = compiled.parse(compiledSrc, Memo.fullMemo());
+
+			assertEquals(interpreted, actual);
+			if(interpreted) {
+				assertEquals(interpretedSrc.index(), compiledSrc.index());
+			}
+		}
+		Source src = Source.from("axxy");
+		assertEquals(true, compiled.parse(src, Memo.fullMemo()));
+		assertEquals(3, src.index());
+	}
+
+	@Test
+	public void compiledParserTest() {
+		Parser<Integer> intParser =
+				Parser.characters(c -> '0' <=c && c <= '9' , "[0-9]")
+				.map(str -> Integer.parseInt(str));
+		Parser<Integer> sumParser = intParser
+				.then(Parser.of("+").then(intParser).star(), (l, r) -> l + r.stream().mapToInt(i -> i).sum());
+
+		assertEquals(Integer.valueOf(6), GrammarCompiler.compile(sumParser).parse("1+2+3"));
+	}
+}
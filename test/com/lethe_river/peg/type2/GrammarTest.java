@@ -0,0 +1,148 @@
+package com.lethe_river.peg.type2;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class GrammarTest {
+
+	@Test
+	public void nullableTest() {
+		LambdaExpressionRule rules = new LambdaExpressionRule();
+		Grammar grammar = Grammar.of(rules.exp);
+
+		assertEquals(false, grammar.isNullable(rules.exp));
+		assertEquals(false, grammar.isNullable(rules.id));
+		Rule optionalId = new Rule.Option(rules.id);
+		assertEquals(true,  Grammar.of(optionalId).isNullable(optionalId));
+	}
+
+	@Test
+	public void invalidGrammarTest() {
+		Rule id = new Rule.PredicatedChar(c -> 'a' <= c && c <= 'z', "[a-z]");
+		assertThrows(IllegalArgumentException.class,
+				() -> Grammar.of(new Rule.Star(new Rule.Option(id))));
+		// 空文字列を含む文字列集合も空文字列を受理する
+		assertThrows(IllegalArgumentException.class,
+				() -> Parser.oneOf("", "a").star().freeze());
+		assertThrows(IllegalArgumentException.class,
+				() -> Parser.oneOf("", "a").star().parse("aab"));
+	}
+
+	@Test
+	public void leftRecursionTest() {
+		// expr ::= expr "-" num / num
+		Parser<Integer> num = Parser.characters(c -> '0' <= c && c <= '9', "[0-9]")
+				.map(Integer::parseInt);
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Parser<Integer>[] sub = new Parser[1];
+		Parser<Integer> expr = Parser.or(() -> sub[0], () -> num);
+		sub[0] = expr.then(Parser.of("-").then(num, (v, n) -> n), (l, r) -> l - r);
+
+		// 不変にする前と後で，元のパーサの結果は変わらない
+		assertEquals(5, (int) expr.parse("10-3-2"));
+		assertEquals(5, (int) expr.parseFused("10-3-2"));
+		assertEquals(5, (int) expr.tryParse("10-3-2").value());
+		Parser<Integer> frozen = expr.freeze();
+		assertEquals(5, (int) expr.parse("10-3-2"));
+
+		assertEquals(5, (int) frozen.parse("10-3-2"));
+		assertEquals(5, (int) frozen.parseFused("10-3-2"));
+		assertEquals(7, (int) frozen.parse("7"));
+		assertThrows(ParseException.class, () -> frozen.parse("-1"));
+		assertEquals(5, (int) GrammarCompiler.compile(frozen).parse("10-3-2"));
+
+		// a ::= b "x" / "a", b ::= a "y"
+		Rule[] a = new Rule[1];
+		Rule b = new Rule.Choice(() -> new Rule.Sequence(a[0], new Rule.FullMatch("y")));
+		a[0] = new Rule.Choice(
+				() -> new Rule.Sequence(b, new Rule.FullMatch("x")),
+				() -> new Rule.FullMatch("a"));
+		Grammar grammar = Grammar.of(a[0]);
+		assertEquals(true, grammar.hasLeftRecursion());
+
+		Source src = Source.from("ayxyxz");
+		assertEquals(true, a[0].parse(src, Memo.denseMemo(grammar)));
+		assertEquals(5, src.index());
+	}
+
+	@Test
+	public void indexTest() {
+		Parser<Integer> intParser = Parser.characters(c -> '0' <= c && c <= '9', "[0-9]")
+				.map(Integer::parseInt);
+		Parser<List<Integer>> listParser = intParser.then(Parser.of(",").then(intParser).star(), (h, t) -> {
+			t.add(0, h);
+			return t;
+		});
+
+		// 読み取った後で不変にしても，全ての規則の番号を配列で引く
+		assertEquals(List.of(1, 2, 3), listParser.parse("1,2,3"));
+		Grammar grammar = ((FrozenParser<List<Integer>>) listParser.freeze()).grammar();
+		assertEquals(true, grammar.isDenselyIndexed());
+		for (int i = 0; i < grammar.size(); i++) {
+			assertEquals(i, grammar.indexOf(grammar.rule(i)));
+		}
+		assertEquals(-1, grammar.indexOf(new Rule.FullMatch(",")));
+	}
+
+	@Test
+	public void frozenParserTest() {
+		Parser<Integer> intParser =
+				Parser.characters(c -> '0' <=c && c <= '9' , "[0-9]")
+				.map(str -> Integer.parseInt(str));
+		Parser<List<Integer>> listParser = intParser
+				.then(Parser.of(",").then(intParser).star(), (h, t) -> {
+					t.add(0, h);
+					return t;
+				})
+				.freeze();
+
+		List<String> inputs = IntStream.range(0, 200)
+				.mapToObj(i -> IntStream.rangeClosed(0, i)
+						.mapToObj(String::valueOf)
+						.collect(Collectors.joining(",")))
+				.collect(Collectors.toList());
+
+		List<Integer> sizes = inputs.parallelStream()
+				.map(listParser::parse)
+				.map(List::size)
+				.collect(Collectors.toList());
+
+		assertEquals(IntStream.rangeClosed(1, 200).boxed().collect(Collectors.toList()), sizes);
+	}
+
+	@Test
+	public void dispatchTest() {
+		Rule digit = new Rule.PredicatedChar(c -> '0' <= c && c <= '9', "[0-9]");
+		Rule.Choice choice = new Rule.Choice(
+				() -> new Rule.FullMatch("if"),
+				() -> new Rule.FullMatch("("),
+				() -> new Rule.Sequence(new Rule.Option(new Rule.FullMatch("-")), digit),
+				() -> new Rule.FullMatch("ä"));
+		Grammar grammar = Grammar.of(choice);
+
+		assertArrayEquals(new int[] {0, 2}, grammar.candidates(choice, Source.from("if")));
+		assertArrayEquals(new int[] {1, 2}, grammar.candidates(choice, Source.from("(")));
+		assertArrayEquals(new int[] {2, 3}, grammar.candidates(choice, Source.from("ä")));
+		assertArrayEquals(new int[] {}, grammar.candidates(choice, Source.from("")));
+		// 表は文法が持ち，文法を持たないメモでは全ての選択肢を試す
+		assertEquals(null, choice.candidates(Source.from("if"), Memo.fullMemo()));
+
+		Parser<String> keyword = Parser.or(
+				() -> Parser.of("if").then(Parser.of("(")).map(v -> "if("),
+				() -> Parser.of("").then(Parser.of("if")).map(v -> "if"),
+				() -> Parser.of("in").map(v -> "in"),
+				() -> Parser.characters(c -> 'a' <= c && c <= 'z', "[a-z]"));
+		List<String> inputs = List.of("if(", "if", "in", "iff", "x");
+		List<String> expected = inputs.stream().map(keyword::parse).collect(Collectors.toList());
+		Parser<String> frozen = keyword.freeze();
+		assertEquals(expected, inputs.stream().map(frozen::parse).collect(Collectors.toList()));
+		assertEquals(expected, inputs.stream().map(frozen::parseFused).collect(Collectors.toList()));
+	}
+}
@@ -0,0 +1,93 @@
+package com.lethe_river.peg.type2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class MemoTest {
+	List<String> inputs = List.of(
+			"x",
+			"λx.x",
+			"(λf.ff)x",
+			"(λx.(λy.(λz.((x)(y))((y)(z)))))",
+			"λxyz.xy(yz)",
+			"(x");
+
+	@Test
+	public void denseMemoTest() {
+		LambdaExpressionRule rules = new LambdaExpressionRule();
+		Grammar grammar = Grammar.of(rules.exp);
+
+		for(String str : inputs) {
+			assertEquals(
+					rules.exp.parse(Source.from(str), Memo.fullMemo()),
+					rules.exp.parse(Source.from(str), Memo.denseMemo(grammar)));
+		}
+	}
+
+	@Test
+	public void sharedRuleTest() {
+		LambdaExpressionRule rules = new LambdaExpressionRule();
+		Grammar absGrammar = Grammar.of(rules.abs);
+		Grammar expGrammar = Grammar.of(rules.exp);
+
+		// 番号は文法ごとに割り当てる
+		assertEquals(0, absGrammar.indexOf(rules.abs));
+		assertEquals(0, expGrammar.indexOf(rules.exp));
+		assertEquals(expGrammar.size(), absGrammar.size());
+
+		Memo memo = Memo.denseMemo(expGrammar);
+		memo.putEnd(rules.abs, 300, 400);
+		memo.putError(rules.id, 3);
+		assertEquals(400, memo.getEnd(rules.abs, 300));
+		assertEquals(Memo.ERROR, memo.getEnd(rules.id, 3));
+		assertEquals(Memo.NULL, memo.getEnd(rules.id, 4));
+		assertEquals(Memo.NULL, memo.getEnd(new Rule.FullMatch("x"), 3));
+	}
+
+	@Test
+	public void memoPolicyTest() {
+		LambdaExpressionRule rules = new LambdaExpressionRule();
+		Grammar grammar = Grammar.of(rules.exp);
+		MemoPolicy policy = MemoPolicy.analyze(grammar);
+
+		assertEquals(false, policy.isMemoized(rules.id));
+		assertEquals(false, policy.isMemoized(rules.lParen));
+		assertEquals(false, policy.isMemoized(rules.app));
+		assertEquals(true,  policy.isMemoized(rules.rhs));
+		assertEquals(true,  policy.isMemoized(rules.exp));
+		assertEquals(true,  policy.with(rules.app, true).isMemoized(rules.app));
+
+		for(String str : inputs) {
+			Source expected = Source.from(str);
+			Source actual = Source.from(str);
+			assertEquals(
+					rules.exp.parse(expected, Memo.fullMemo()),
+					rules.exp.parse(actual, Memo.denseMemo(policy)));
+			assertEquals(expected.index(), actual.index());
+			assertEquals(
+					rules.exp.parse(Source.from(str), Memo.fullMemo()),
+					GrammarCompiler.compile(policy).parse(Source.from(str), Memo.denseMemo(policy)));
+		}
+	}
+
+	@Test
+	public void cutTest() {
+		LambdaExpressionRule rules = new LambdaExpressionRule();
+		Memo memo = Memo.denseMemo(Grammar.of(rules.exp));
+
+		for (int i = 0; i < 1000; i++) {
+			memo.putEnd(rules.exp, i, i + 1);
+		}
+		memo.cut(600);
+
+		assertEquals(600, memo.cutPosition());
+		assertEquals(Memo.NULL, memo.getEnd(rules.exp, 10));
+		assertEquals(701, memo.getEnd(rules.exp, 700));
+
+		memo.putEnd(rules.exp, 10, 11);
+		assertEquals(Memo.NULL, memo.getEnd(rules.exp, 10));
+	}
+}
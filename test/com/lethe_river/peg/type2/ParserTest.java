@@ -1,6 +1,16 @@
 package com.lethe_river.peg.type2;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.Test;
 
@@ -35,4 +45,359 @@ public class ParserTest {
 
 		assertEquals(expected, actual);
 	}
+
+	@Test
+	public void intListFusedTest() {
+		IntList expected = ArrayIntList.of(1, 2, 3);
+		IntList actual   = intListParser.parseFused(expected.toString());
+
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void fusedValueMemoTest() {
+		// E ::= T "+" E / T, T ::= F "*" T / F, F ::= "(" E ")" / num
+		AtomicInteger evaluated = new AtomicInteger();
+		Parser<Integer> num = intParser.map(n -> {
+			evaluated.incrementAndGet();
+			return n;
+		});
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Parser<Integer>[] e = new Parser[1];
+		Parser<Integer> f = Parser.or(() -> Parser.of("(").then(e[0]).then(")"), () -> num);
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Parser<Integer>[] t = new Parser[1];
+		t[0] = Parser.or(() -> f.then(Parser.of("*").then(t[0]), (l, r) -> l * r), () -> f);
+		e[0] = Parser.or(() -> t[0].then(Parser.of("+").then(e[0]), (l, r) -> l + r), () -> t[0]);
+
+		// 記録した結果オブジェクトを再利用するため，数は1度だけ生成する
+		String input = "(".repeat(200) + "2*3+1" + ")".repeat(200);
+		assertEquals(7, (int) e[0].parseFused(input));
+		assertEquals(3, evaluated.get());
+		assertEquals(7, (int) e[0].freeze().parseFused(input));
+		assertEquals(6, evaluated.get());
+
+		// 規則を共有するパーサの結果オブジェクトは区別する
+		Parser<Integer> doubled = Parser.or(
+				() -> intParser.then(Parser.of("x")),
+				() -> intParser.map(n -> n * 2));
+		assertEquals(6, (int) doubled.parseFused("3"));
+		assertEquals(6, (int) doubled.freeze().parseFused("3"));
+	}
+
+	@Test
+	public void tryParseTest() {
+		ParseResult<IntList> success = intListParser.tryParse("<1, 2, 3>");
+		assertTrue(success.isSuccess());
+		assertEquals(ArrayIntList.of(1, 2, 3), success.value());
+		assertEquals(9, success.position());
+
+		Source src = Source.from("xx<1, 2");
+		src.jump(2);
+		ParseResult<IntList> failure = intListParser.freeze().tryParse(src);
+		assertFalse(failure.isSuccess());
+		assertEquals(2, src.index());
+		assertEquals(7, failure.position());
+		assertTrue(failure.toOptional().isEmpty());
+		assertThrows(ParseException.class, failure::orElseThrow);
+		assertEquals(0, new ParseException().getStackTrace().length);
+	}
+
+	@Test
+	public void farthestFailureTest() {
+		ParseException e = assertThrows(ParseException.class, () -> intListParser.parse("<1, 2, x>"));
+		assertEquals(7, e.position());
+		assertEquals(List.of("\" \"", "[0-9]"), e.expected());
+		assertEquals("expected \" \", [0-9] at 7", e.getMessage());
+		ParseException fused = assertThrows(ParseException.class, () -> intListParser.parseFused("<1, 2, x>"));
+		assertEquals(e.expected(), fused.expected());
+
+		ParseResult<IntList> result = intListParser.tryParse("<1, 2");
+		assertEquals(5, result.position());
+		assertEquals(3, result.expected().size());
+		assertTrue(result.expected().contains("[0-9]"));
+
+		assertEquals(result.expected(), intListParser.freeze().tryParse("<1, 2").expected());
+		assertEquals(List.of(), intListParser.tryParse("<1>").expected());
+
+		// 表で除いた選択肢の終端記号のみを記録し，試して失敗した選択肢の終端記号は記録しない
+		Parser<String> guarded = Parser.or(
+				() -> Parser.of("a").then(Parser.not(Parser.of("b"))).map(v -> "a"),
+				() -> Parser.of("c").map(v -> "c"));
+		List<String> expected = List.of("\"c\"");
+		assertEquals(expected, guarded.tryParse("ab").expected());
+		assertEquals(expected, guarded.freeze().tryParse("ab").expected());
+		assertEquals(expected, guarded.tryParse("ab").expected());
+		assertEquals(expected, GrammarCompiler.compile(guarded).tryParse("ab").expected());
+		Memo memo = Memo.fullMemo();
+		assertFalse(ParsingMachine.compile(guarded.getRule()).parse(Source.from("ab"), memo));
+		assertEquals(expected, memo.failures().exception(0).expected());
+	}
+
+	@Test
+	public void choiceFusedTest() {
+		Parser<String> keyword = Parser.or(
+				() -> Parser.of("if").then(Parser.of("(")).map(v -> "if("),
+				() -> Parser.of("if").map(v -> "if"),
+				() -> Parser.characters(c -> 'a' <= c && c <= 'z', "[a-z]"));
+
+		assertEquals(keyword.parse("if("), keyword.parseFused("if("));
+		assertEquals(keyword.parse("if"),  keyword.parseFused("if"));
+		assertEquals(keyword.parse("iff"), keyword.parseFused("iff"));
+
+		// 選択肢は受理判定と結果の生成で共有し，1度だけ解決する
+		AtomicInteger resolved = new AtomicInteger();
+		Parser<String> counted = Parser.or(
+				() -> {
+					resolved.incrementAndGet();
+					return Parser.of("if").map(v -> "if");
+				},
+				() -> Parser.characters(c -> 'a' <= c && c <= 'z', "[a-z]"));
+		assertEquals("if", counted.parse("if"));
+		assertEquals("if", counted.parseFused("if"));
+		assertEquals("if", counted.freeze().parseFused("if"));
+		assertEquals(1, resolved.get());
+	}
+
+	@Test
+	public void commitTest() {
+		Parser<String> committed = Parser.or(
+				() -> Parser.of("a").commit().then(Parser.of("b")).map(v -> "ab"),
+				() -> Parser.of("ac").map(v -> "ac"));
+		Parser<String> uncommitted = Parser.or(
+				() -> Parser.of("a").then(Parser.of("b")).map(v -> "ab"),
+				() -> Parser.of("ac").map(v -> "ac"));
+
+		assertEquals("ab", committed.parseFused("ab"));
+		assertEquals("ac", uncommitted.parseFused("ac"));
+		assertThrows(ParseException.class, () -> committed.parseFused("ac"));
+
+		Parser<List<Integer>> statements = intParser.then(";").commit().star();
+		assertEquals(List.of(1, 22, 333), statements.parseFused("1;22;333;"));
+
+		// 切断より前の記録は捨てられるため，parseも1回の走査で読み取る
+		Parser<List<String>> assignments = Parser.<String>or(
+				() -> Parser.of("x").then(Parser.of("=")).commit().then(Parser.of("1")).map(v -> "assign"),
+				() -> Parser.of("x").map(v -> "expr"))
+				.then(";")
+				.star();
+		String input = "x=1;x;".repeat(2000);
+		Parser<List<String>> frozen = assignments.freeze();
+		assertEquals(4000, assignments.parse(input).size());
+		assertEquals(4000, assignments.tryParse(input).value().size());
+		assertEquals(4000, frozen.parse(input).size());
+		assertEquals(4000, frozen.parseFused(input).size());
+		ParseResult<List<String>> result = frozen.tryParse(input);
+		assertEquals(4000, result.value().size());
+		assertEquals(input.length(), result.position());
+	}
+
+	@Test
+	public void parseAllParallelTest() {
+		Parser<List<Integer>> line = intParser
+				.then(Parser.of(",").then(intParser), List::of)
+				.then("\n");
+
+		String input = IntStream.range(0, 30000)
+				.mapToObj(i -> i + "," + i * 2 + "\n")
+				.collect(Collectors.joining());
+		List<List<Integer>> expected = line.star().parse(input);
+
+		assertEquals(expected, line.parseAllParallel(input));
+		assertEquals(expected, line.parseAllParallel(input, Parser.of(",")));
+		assertThrows(ParseException.class, () -> line.parseAllParallel(input + "x"));
+
+		// 複製できないソースは逐次的に読み取る
+		assertEquals(expected, line.parseAllParallel(Source.from(new StringReader(input)), Parser.of("\n")));
+	}
+
+	@Test
+	public void parseAllRecoveringTest() {
+		Parser<List<Integer>> line = intParser
+				.then(Parser.of(",").then(intParser), List::of)
+				.then("\n");
+
+		Recovered<List<Integer>> recovered = line.parseAllRecovering("1,2\n3,x\n\n5,6\n7,");
+		assertEquals(List.of(List.of(1, 2), List.of(5, 6)), recovered.values());
+		assertEquals(3, recovered.errors().size());
+
+		Recovered.SyntaxError error = recovered.errors().get(0);
+		assertEquals(4, error.start());
+		assertEquals(8, error.end());
+		assertEquals(6, error.cause().position());
+		assertEquals(List.of("[0-9]"), error.cause().expected());
+		assertEquals(8, recovered.errors().get(1).start());
+		assertEquals(9, recovered.errors().get(1).end());
+		assertEquals(15, recovered.errors().get(2).end());
+
+		assertFalse(line.parseAllRecovering("1,2\n").hasErrors());
+	}
+
+	@Test
+	public void profilerTest() {
+		RuleAnalyzer analyzer = new RuleAnalyzer();
+		analyzer.setName(intParser, "int");
+		analyzer.setName(intListParser, "intList");
+		ParseProfiler profiler = new ParseProfiler(analyzer);
+
+		assertEquals(ArrayIntList.of(1, 22, 333), profiler.parse(intListParser, "<1, 22, 333>"));
+		ParseProfiler.RuleProfile top = profiler.profiles(ParseProfiler.Cost.CONSUMED).get(0);
+		assertEquals("<intList>", top.name());
+		assertEquals(12, top.consumed());
+		ParseProfiler.RuleProfile integer = profiler.profiles(ParseProfiler.Cost.INVOCATIONS).stream()
+				.filter(p -> p.name().equals("<int>"))
+				.findAny().get();
+		assertEquals(3, integer.misses());
+		assertEquals(6, integer.consumed());
+		assertTrue(integer.hits() > 0);
+
+		Parser<String> keyword = Parser.or(
+				() -> Parser.of("if").then(Parser.of("(")).map(v -> "if("),
+				() -> Parser.characters(c -> 'a' <= c && c <= 'z', "[a-z]"));
+		profiler.reset();
+		assertEquals("if", profiler.parse(keyword, "if)"));
+		assertTrue(profiler.profiles(ParseProfiler.Cost.BACKTRACKS).get(0).backtracks() > 0);
+		assertTrue(profiler.report(ParseProfiler.Cost.TIME).startsWith("rule"));
+	}
+
+	@Test
+	public void metricsTest() {
+		ParserMetrics metrics = new ParserMetrics();
+		Parser<IntList> metered = intListParser.withMetrics(metrics);
+		assertEquals(ArrayIntList.of(1, 2), metered.parse("<1, 2>"));
+		assertEquals(ArrayIntList.of(3), metered.freeze().parse("<3>"));
+		assertFalse(metered.tryParse("<4,").isSuccess());
+
+		ParserMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(3, snapshot.parses());
+		assertEquals(1, snapshot.failures());
+		assertEquals(9, snapshot.characters());
+		assertEquals(3, snapshot.latency().count());
+		assertTrue(snapshot.memoSizes().max() > 0);
+		assertEquals(0, snapshot.minus(snapshot).parses());
+
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		Histogram.Snapshot distribution = histogram.snapshot();
+		assertEquals(1000, distribution.count());
+		assertTrue(Math.abs(distribution.percentile(50) - 500) <= 500 / 16);
+		assertTrue(Math.abs(distribution.max() - 1000) <= 1000 / 16);
+		assertEquals(1, distribution.percentile(0));
+	}
+
+	@Test
+	public void charClassTest() {
+		Rule.CharClass hex = Rule.CharClass.of("[0-9a-fA-F_]");
+		assertEquals("[0-9A-F_a-f]", hex.description());
+		assertTrue(hex.contains('7'));
+		assertTrue(hex.contains('_'));
+		assertFalse(hex.contains('g'));
+
+		Rule.CharClass kana = Rule.CharClass.range('ぁ', 'ゖ').union(Rule.CharClass.anyOf("ー"));
+		assertTrue(kana.contains('あ'));
+		assertTrue(kana.contains('ー'));
+		assertFalse(kana.contains('ア'));
+		assertEquals("[^\\n\\r]", Rule.CharClass.of("[^\\r\\n]").description());
+		assertTrue(Rule.CharClass.of("[^\\r\\n]").contains('あ'));
+		assertEquals("[\\-a]", Rule.CharClass.of("a-").description());
+		assertThrows(IllegalArgumentException.class, () -> Rule.CharClass.of("[z-a]"));
+
+		Parser<String> number = Parser.charClasses("[0-9]");
+		Parser<String> word = Parser.charClasses("[a-z\\u3041-\\u3096]");
+		Parser<String> token = Parser.or(() -> number, () -> word).freeze();
+		assertEquals("123", token.parse("123"));
+		assertEquals("abcあ", token.parseFused("abcあ"));
+		assertEquals(Character.valueOf('x'), Parser.charClass("x-z").parse("x"));
+		assertThrows(ParseException.class, () -> token.parse("-"));
+	}
+
+	@Test
+	public void oneOfTest() {
+		Parser<String> first = Parser.oneOf("=", "==", "!=", "<", "<=");
+		Parser<String> longest = Parser.oneOf(Rule.Literals.Priority.LONGEST, "=", "==", "!=", "<", "<=");
+		assertEquals("=", first.then(Parser.of("=")).parse("=="));
+		assertEquals("==", longest.parse("=="));
+		assertEquals("<=", longest.parseFused("<="));
+		assertEquals("!=", first.parseFused("!="));
+		assertThrows(ParseException.class, () -> longest.parse("!"));
+		assertEquals("longest(\"=\"/\"==\"/\"!=\"/\"<\"/\"<=\")",
+				((Rule.RuleWithDescription) longest.getRule()).description());
+
+		List<String> words = List.of("do", "double", "if", "in", "int", "interface");
+		Parser<String> keyword = Parser.or(
+				() -> Parser.of("do").map(v -> "do"),
+				() -> Parser.of("double").map(v -> "double"),
+				() -> Parser.of("int").map(v -> "int"),
+				() -> Parser.of("interface").map(v -> "interface"),
+				() -> Parser.of("in").map(v -> "in"),
+				() -> Parser.of("if").map(v -> "if"));
+		List<String> expected = words.stream().map(keyword::parse).collect(Collectors.toList());
+		Parser<String> frozen = keyword.freeze();
+		assertTrue(keyword.grammar().literals((Rule.Choice) keyword.getRule()) != null);
+		assertEquals(expected, words.stream().map(frozen::parse).collect(Collectors.toList()));
+		assertEquals(expected, words.stream().map(frozen::parseFused).collect(Collectors.toList()));
+		assertEquals(List.of("do", "do", "if", "in", "int", "int"), expected);
+	}
+
+	@Test
+	public void operatorsTest() {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Parser<String>[] expr = new Parser[1];
+		Parser<String> operand = Parser.or(
+				() -> Parser.characters(c -> 'a' <= c && c <= 'z', "[a-z]"),
+				() -> Parser.of("(").then(expr[0]).then(")"));
+		expr[0] = Parser.operators(operand)
+				.prefix("-", 30, x -> "(-" + x + ")")
+				.infixLeft("+", 10, (l, r) -> "(" + l + "+" + r + ")")
+				.infixLeft("-", 10, (l, r) -> "(" + l + "-" + r + ")")
+				.infixLeft("*", 20, (l, r) -> "(" + l + "*" + r + ")")
+				.infixRight("^", 40, (l, r) -> "(" + l + "^" + r + ")")
+				.postfix("!", 50, x -> "(" + x + "!)")
+				.build();
+		Parser<String> frozen = expr[0].freeze();
+
+		List<String> inputs = List.of("a+b*c", "a-b-c", "a^b^c", "-a^b", "-a+b", "a*(b+c)!", "a+");
+		List<String> expected = List.of("(a+(b*c))", "((a-b)-c)", "(a^(b^c))", "(-(a^b))", "((-a)+b)", "(a*((b+c)!))", "a");
+		assertEquals(expected, inputs.stream().map(expr[0]::parse).collect(Collectors.toList()));
+		assertEquals(expected, inputs.stream().map(frozen::parse).collect(Collectors.toList()));
+		assertEquals(expected, inputs.stream().map(frozen::parseFused).collect(Collectors.toList()));
+		assertThrows(ParseException.class, () -> frozen.parse("-"));
+	}
+
+	@Test
+	public void incrementalTest() {
+		String text = IntStream.rangeClosed(1, 100)
+				.mapToObj(String::valueOf)
+				.collect(Collectors.joining(", ", "<", ">"));
+		IncrementalParser<IntList> incremental = intListParser.incremental(text);
+		assertEquals(intListParser.parse(text), incremental.parse());
+
+		// 末尾の書換えは前方の記録を残す
+		int size = incremental.memoSize();
+		incremental.edit(text.length() - 4, 3, "1000");
+		assertTrue(incremental.memoSize() > size / 2);
+		assertEquals(intListParser.parse(incremental.text()), incremental.parse());
+
+		Random random = new Random(0);
+		for (int i = 0; i < 200; i++) {
+			String current = incremental.text();
+			int offset = random.nextInt(current.length() + 1);
+			int removed = random.nextInt(Math.min(3, current.length() - offset) + 1);
+			String inserted = List.of("", "7", ", 8", " ", "<", ">").get(random.nextInt(6));
+			incremental.edit(offset, removed, inserted);
+
+			String edited = incremental.text();
+			assertEquals(current.substring(0, offset) + inserted + current.substring(offset + removed), edited);
+			IntList expected;
+			try {
+				expected = intListParser.parse(edited);
+			} catch(ParseException e) {
+				assertThrows(ParseException.class, incremental::parse);
+				continue;
+			}
+			assertEquals(expected, incremental.parse());
+		}
+	}
 }
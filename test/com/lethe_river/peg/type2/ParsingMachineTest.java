@@ -0,0 +1,78 @@
+package com.lethe_river.peg.type2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ParsingMachineTest {
+
+	@Test
+	public void sameAsInterpretedTest() {
+		LambdaExpressionRule rules = new LambdaExpressionRule();
+		Rule exp = rules.exp;
+		ParsingMachine machine = ParsingMachine.compile(exp);
+
+		for(String str : List.of(
+				"x",
+				"λx.x",
+				"(λf.ff)x",
+				"(λx.(λy.(λz.((x)(y))((y)(z)))))",
+				"λxyz.xy(yz)",
+				"",
+				"(",
+				"λ.x",
+				"(x")) {
+			Source interpretedSrc = Source.from(str);
+			Memo interpretedMemo = Memo.fullMemo();
+			boolean interpreted = exp.parse(interpretedSrc, interpretedMemo);
+
+			Source machineSrc = Source.from(str);
+			Memo machineMemo = Memo.fullMemo();
+			boolean actual = machine.parse(machineSrc, machineMemo);
+
+			assertEquals(interpreted, actual);
+			if(interpreted) {
+				assertEquals(interpretedSrc.index(), machineSrc.index());
+			} else {
+				assertEquals(interpretedMemo.failures().exception(0).expected(), machineMemo.failures().exception(0).expected());
+			}
+		}
+	}
+
+	@Test
+	public void predicateAndCutTest() {
+		Rule a = new Rule.FullMatch("a");
+		Rule b = new Rule.FullMatch("b");
+		// !"ab" "a"+ &"b" / "a" ↑ "c" / "a"
+		Rule rule = new Rule.Choice(
+				() -> new Rule.Sequence(new Rule.NotPredicate(new Rule.Sequence(a, b)), new Rule.Plus(a), new Rule.AndPredicate(b)),
+				() -> new Rule.Sequence(a, new Rule.Cut(), new Rule.FullMatch("c")),
+				() -> a);
+		ParsingMachine machine = ParsingMachine.compile(rule);
+
+		Source src = Source.from("aab");
+		assertTrue(machine.parse(src));
+		assertEquals(2, src.index());
+		assertFalse(machine.parse(Source.from("ab")));
+		assertTrue(machine.parse(Source.from("ac")));
+	}
+
+	@Test
+	public void deepNestingTest() {
+		// p ::= "(" p? ")"
+		Rule[] p = new Rule[1];
+		p[0] = new Rule.Choice(() -> new Rule.Sequence(new Rule.FullMatch("("), new Rule.Option(p[0]), new Rule.FullMatch(")")));
+		ParsingMachine machine = ParsingMachine.compile(MemoPolicy.analyze(Grammar.of(p[0])));
+
+		int depth = 300000;
+		String str = "(".repeat(depth) + ")".repeat(depth);
+		Source src = Source.from(str);
+		assertTrue(machine.parse(src));
+		assertEquals(str.length(), src.index());
+		assertFalse(machine.parse(Source.from(str.substring(0, str.length() - 1))));
+	}
+}
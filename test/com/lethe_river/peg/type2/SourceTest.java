@@ -0,0 +1,231 @@
+package com.lethe_river.peg.type2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SourceTest {
+
+	/**
+	 * "0;\n1;\n2;\n..."を必要な分だけ生成するReader
+	 */
+	static class StatementsReader extends Reader {
+		final int count;
+		int next = 0;
+		String pending = "";
+
+		StatementsReader(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) {
+			if(pending.isEmpty()) {
+				if(next == count) {
+					return -1;
+				}
+				pending = (next++) + ";\n";
+			}
+			int n = Math.min(len, pending.length());
+			pending.getChars(0, n, cbuf, off);
+			pending = pending.substring(n);
+			return n;
+		}
+
+		@Override
+		public void close() {
+
+		}
+	}
+
+	@Test
+	public void streamingTest() {
+		Parser<Integer> intParser =
+				Parser.characters(c -> '0' <=c && c <= '9' , "[0-9]")
+				.map(str -> Integer.parseInt(str));
+		Parser<List<Integer>> statements = intParser.then(";\n").commit().star().freeze();
+
+		Source src = Source.from(new StatementsReader(100000));
+		List<Integer> result = statements.parseFused(src);
+
+		assertEquals(100000, result.size());
+		assertEquals(Integer.valueOf(99999), result.get(99999));
+		assertEquals(100001, src.lineNum());
+		assertThrows(IndexOutOfBoundsException.class, () -> src.jump(0));
+		assertThrows(UnsupportedOperationException.class, src::duplicate);
+
+		// 切断を含む文法はparseとtryParseでも，解放した位置に戻らずに読み取る
+		Parser<List<Integer>> unfrozen = intParser.then(";").commit().star();
+		assertEquals(List.of(1, 22, 333), unfrozen.parse(Source.from(new StringReader("1;22;333;"))));
+		assertEquals(List.of(1, 22, 333), unfrozen.tryParse(Source.from(new StringReader("1;22;333;"))).value());
+		assertEquals(100000, statements.parse(Source.from(new StatementsReader(100000))).size());
+	}
+
+	@Test
+	public void lineNumTest() {
+		for(String str : List.of("a\nb\r\nc\rd", "\r\n\r\n", "\r\r", "abc")) {
+			Source expected = Source.from(str);
+			Source actual = Source.from(new StringReader(str));
+			for (int i = 0; i <= str.length(); i++) {
+				expected.jump(i);
+				actual.jump(i);
+				assertEquals(expected.lineNum(), actual.lineNum());
+				assertEquals(expected.columnNum(), actual.columnNum());
+			}
+			assertEquals(str, actual.makeString(0, str.length()));
+		}
+
+		// 行をまたいで戻りながら読み取り，読み取った分を解放しても同じ結果になる
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append("x".repeat(i % 11)).append(i % 3 == 0 ? "\r\n" : i % 3 == 1 ? "\n" : "\r");
+		}
+		String str = sb.toString();
+		Source expected = Source.from(str);
+		Source actual = Source.from(new StringReader(str));
+		for (int i = 0; i <= str.length(); i++) {
+			for(int j : new int[] {i, Math.max(0, i - 13), i}) {
+				expected.jump(j);
+				actual.jump(j);
+				assertEquals(expected.lineNum(), actual.lineNum());
+				assertEquals(expected.columnNum(), actual.columnNum());
+			}
+			if(i % 100 == 99) {
+				actual.release(i - 13);
+			}
+		}
+	}
+
+	@Test
+	public void columnNumTest() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {
+			sb.append("x".repeat(i % 7)).append(i % 3 == 0 ? "\r\n" : i % 3 == 1 ? "\n" : "\r");
+		}
+		String str = sb.toString();
+		Source src = Source.from(str);
+		Source fallback = new Source() {
+			int pos;
+			public int length() { return str.length(); }
+			public boolean hasNext() { return pos < str.length(); }
+			public char next() { return str.charAt(pos++); }
+			public int index() { return pos; }
+			public int lineNum() { throw new UnsupportedOperationException(); }
+			public void jump(int index) { pos = index; }
+			public String makeString(int from, int to) { return str.substring(from, to); }
+			public Source duplicate() { throw new UnsupportedOperationException(); }
+		};
+
+		// 前から，後ろから，飛び飛びに求めても同じ結果になる
+		int[] order = new int[str.length() + 1];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i % 2 == 0 ? i : order.length - i;
+		}
+		for(int i : order) {
+			src.jump(i);
+			fallback.jump(i);
+			assertEquals(fallback.columnNum(), src.columnNum());
+		}
+		src.jump(str.length());
+		assertEquals(3001, src.lineNum());
+		assertEquals(1, src.columnNum());
+	}
+
+	@Test
+	public void viewTest() {
+		String str = "a\nb\r\nc";
+		char[] padded = ("xx" + str + "yy").toCharArray();
+		CharBuffer direct = java.nio.ByteBuffer.allocateDirect(32).asCharBuffer();
+		direct.put("zz" + str).flip().position(2);
+
+		Source expected = Source.from(str);
+		for(Source actual : List.of(
+				Source.from(str.toCharArray()),
+				Source.from(padded, 2, str.length()),
+				Source.from(CharBuffer.wrap(padded, 2, str.length())),
+				Source.from(direct),
+				Source.from(new StringBuilder(str)))) {
+			assertEquals(str.length(), actual.length());
+			for (int i = 0; i <= str.length(); i++) {
+				expected.jump(i);
+				actual.jump(i);
+				assertEquals(expected.lineNum(), actual.lineNum());
+				assertEquals(expected.makeString(0, i), actual.makeString(0, i));
+			}
+		}
+		assertThrows(IndexOutOfBoundsException.class, () -> Source.from(padded, 2, padded.length));
+	}
+
+	@Test
+	public void mappedTest() throws IOException {
+		String str = "ab\nあい\r\n\uD83D\uDE00c";
+		Path path = Files.createTempFile("peg", ".txt");
+		try {
+			Files.writeString(path, str, StandardCharsets.UTF_8);
+			Source expected = Source.from(str);
+			Source actual = Source.map(path, StandardCharsets.UTF_8);
+
+			int from = actual.index();
+			while(expected.hasNext()) {
+				assertEquals(expected.lineNum(), actual.lineNum());
+				assertEquals(expected.next(), actual.next());
+				assertEquals(expected.makeString(0, expected.index()), actual.makeString(from, actual.index()));
+			}
+			assertFalse(actual.hasNext());
+			assertEquals(str.getBytes(StandardCharsets.UTF_8).length, actual.length());
+
+			Parser<String> any = Parser.characters(c -> true, ".");
+			assertEquals(str, any.parse(Source.map(path, StandardCharsets.UTF_8)));
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void bulkTest() throws IOException {
+		String str = "abc123あいdef";
+		Path path = Files.createTempFile("peg", ".txt");
+		try {
+			Files.writeString(path, str, StandardCharsets.UTF_8);
+			for(Source src : List.of(
+					Source.from(str),
+					Source.from(("_" + str).toCharArray(), 1, str.length()),
+					Source.from(java.nio.ByteBuffer.allocateDirect(64).asCharBuffer().put(str).flip()),
+					Source.from(new StringReader(str)),
+					Source.map(path, StandardCharsets.UTF_8))) {
+				assertEquals('a', src.peek());
+				assertFalse(src.regionMatches("abd"));
+				assertEquals(0, src.index());
+				assertTrue(src.regionMatches("ab"));
+				assertEquals(1, src.scanWhile(c -> 'a' <= c && c <= 'z'));
+				assertEquals(3, src.scanWhile(Character::isDigit));
+				int start = src.index();
+				assertTrue(src.regionMatches("あい"));
+				src.jump(start);
+				assertEquals(2, src.scanWhile(c -> c > 0x80));
+				assertEquals('d', src.peek());
+				int f = src.indexOf('f');
+				assertEquals(src.index() + 2, f);
+				assertEquals(-1, src.indexOf('x'));
+				assertFalse(src.regionMatches("defg"));
+				assertEquals(3, src.scanWhile(c -> true));
+				assertEquals(Source.END, src.peek());
+				assertFalse(src.regionMatches("x"));
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+}